@@ -0,0 +1,297 @@
+package de.thl.jedunit;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Grades a whole cohort of submissions in parallel.
+ *
+ * Every subdirectory of the batch directory is a submission directory
+ * (prepared like a VPL evaluation directory, see GradingServer).
+ * Submissions are distributed over a work-stealing pool with one thread per core.
+ * Every pool thread owns a GradingServer process, so each submission is evaluated
+ * isolated from the submissions graded on other threads.
+ * A grading process that dies (e.g. due to System.exit() in a submission) is replaced.
+ * A grading process that does not respond within the time limit of a submission
+ * (e.g. due to an endless loop in a submission) is destroyed and replaced as well.
+ *
+ * Scores and comments of all submissions are written to one summary file (JSON):
+ *
+ *   java -cp ".:*" de.thl.jedunit.CLI grade --batch submissions [--output grades.json] [--workers n] [--timeout seconds]
+ *
+ * @author Nane Kratzke
+ */
+public class BatchGrader {
+
+    /**
+     * Grading result of a submission.
+     */
+    public static class Result {
+        public final String submission;
+        public final int grade;
+        public final JSONArray comments;
+        public final String output;
+
+        Result(String submission, int grade, JSONArray comments, String output) {
+            this.submission = submission;
+            this.grade = grade;
+            this.comments = comments;
+            this.output = output;
+        }
+
+        JSONObject toJSON() {
+            JSONObject json = new JSONObject();
+            json.put("submission", this.submission);
+            json.put("grade", this.grade);
+            json.put("comments", this.comments);
+            return json;
+        }
+    }
+
+    /**
+     * Grading process (a GradingServer reading requests from stdin).
+     */
+    private static class Worker {
+
+        private final Process process;
+        private final PrintStream requests;
+        private final InputStream responses;
+
+        Worker() throws IOException {
+            String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+            this.process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), GradingServer.class.getName())
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+            this.requests = new PrintStream(this.process.getOutputStream(), true, "UTF-8");
+            this.responses = new BufferedInputStream(this.process.getInputStream());
+        }
+
+        /**
+         * Grades a submission.
+         * @param submission Submission directory
+         * @param timeout Time limit for the response in milliseconds (0 means unlimited)
+         * @throws IOException if the process terminates or does not respond in time (it is destroyed then)
+         */
+        String grade(File submission, long timeout) throws IOException {
+            AtomicBoolean expired = new AtomicBoolean(false);
+            ScheduledFuture<?> deadline = timeout <= 0 ? null : DEADLINES.schedule(() -> {
+                // Unblocks the reading thread (the response stream is closed)
+                expired.set(true);
+                this.process.destroyForcibly();
+            }, timeout, TimeUnit.MILLISECONDS);
+            try {
+                this.requests.println(submission.getAbsolutePath());
+                if (this.requests.checkError()) throw new IOException("Grading process terminated");
+                return GradingServer.readResponse(this.responses);
+            } catch (IOException ex) {
+                if (expired.get()) throw new IOException(String.format("Grading process did not respond within %d ms", timeout));
+                throw ex;
+            } finally {
+                if (deadline != null) deadline.cancel(false);
+            }
+        }
+
+        void close() {
+            this.requests.close();
+            this.process.destroy();
+        }
+    }
+
+    /**
+     * Attempts to grade a submission (the grading process is replaced between attempts).
+     */
+    private static final int ATTEMPTS = 2;
+
+    /**
+     * Default time limit to grade a submission in seconds.
+     */
+    public static final long TIMEOUT = 300;
+
+    /**
+     * Destroys grading processes that do not respond in time.
+     */
+    private static final ScheduledExecutorService DEADLINES = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread timer = new Thread(task, "JEdUnit grading deadlines");
+        timer.setDaemon(true);
+        return timer;
+    });
+
+    private final int workers;
+
+    /**
+     * Time limit to grade a submission in milliseconds (0 means unlimited).
+     */
+    private final long timeout;
+
+    /**
+     * Grading process of the current pool thread.
+     */
+    private final ThreadLocal<Worker> worker = new ThreadLocal<>();
+
+    /**
+     * All grading processes started so far.
+     */
+    private final List<Worker> started = Collections.synchronizedList(new LinkedList<>());
+
+    /**
+     * Creates a batch grader.
+     * @param workers Number of submissions graded in parallel
+     */
+    public BatchGrader(int workers) {
+        this(workers, TIMEOUT * 1000);
+    }
+
+    /**
+     * Creates a batch grader.
+     * @param workers Number of submissions graded in parallel
+     * @param timeout Time limit to grade a submission in milliseconds (0 means unlimited).
+     *                A submission that runs out of time is graded again by a new grading process
+     *                and gets 0 points if it runs out of time again.
+     */
+    public BatchGrader(int workers, long timeout) {
+        this.workers = Math.max(1, workers);
+        this.timeout = Math.max(0, timeout);
+    }
+
+    /**
+     * Grades all submission directories of a batch directory.
+     * @param batch Directory containing one subdirectory per submission
+     * @return Results ordered by submission name
+     */
+    public List<Result> grade(File batch) throws IOException, InterruptedException {
+        File[] submissions = batch.listFiles(File::isDirectory);
+        if (submissions == null) throw new IOException("Not a directory: " + batch);
+        Arrays.sort(submissions);
+        ForkJoinPool pool = new ForkJoinPool(this.workers);
+        try {
+            return pool.submit(() -> Arrays.stream(submissions)
+                .parallel()
+                .map(this::gradeSubmission)
+                .collect(Collectors.toList())
+            ).get();
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException(ex.getCause());
+        } finally {
+            pool.shutdownNow();
+            this.started.forEach(Worker::close);
+            this.started.clear();
+        }
+    }
+
+    /**
+     * Grades a submission with the grading process of the current thread.
+     */
+    private Result gradeSubmission(File submission) {
+        Exception failure = null;
+        for (int attempt = 0; attempt < ATTEMPTS; attempt++) {
+            try {
+                if (this.worker.get() == null) {
+                    Worker w = new Worker();
+                    this.started.add(w);
+                    this.worker.set(w);
+                }
+                return parse(submission.getName(), this.worker.get().grade(submission, this.timeout));
+            } catch (RuntimeException ex) {
+                // Malformed response, grading again would not help
+                failure = ex;
+                break;
+            } catch (IOException ex) {
+                failure = ex;
+                // Worker is null if the grading process could not be started
+                Worker w = this.worker.get();
+                if (w != null) w.close();
+                this.worker.remove();
+            }
+        }
+        JSONArray comments = new JSONArray();
+        comments.put(new JSONObject().put("output", "Severe error: " + failure.getMessage()));
+        return new Result(submission.getName(), 0, comments, "");
+    }
+
+    /**
+     * Extracts grade and comments from the trailer of the response of a grading process
+     * (see GradingServer). All lines before the trailer are ignored, because they
+     * contain the output of the submission.
+     * @throws IllegalArgumentException if the response does not end with a valid trailer
+     */
+    static Result parse(String submission, String response) {
+        String[] lines = response.split("\n");
+        int n = lines.length;
+        if (n < 2 || !lines[n - 2].startsWith(GradingServer.GRADE) || !lines[n - 1].startsWith(GradingServer.COMMENTS)) {
+            throw new IllegalArgumentException("Grading process response without trailer");
+        }
+        try {
+            int grade = Integer.parseInt(lines[n - 2].substring(GradingServer.GRADE.length()).trim());
+            JSONArray comments = new JSONArray(lines[n - 1].substring(GradingServer.COMMENTS.length()));
+            return new Result(submission, grade, comments, response);
+        } catch (JSONException ex) {
+            throw new IllegalArgumentException("Grading process response with invalid comments: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Writes the summary of a batch.
+     * @param results Results of all submissions
+     * @param summary File to write
+     */
+    public static void write(List<Result> results, File summary) throws IOException {
+        JSONArray submissions = new JSONArray();
+        results.forEach(r -> submissions.put(r.toJSON()));
+        try (Writer out = new OutputStreamWriter(Files.newOutputStream(summary.toPath()), StandardCharsets.UTF_8)) {
+            out.write(new JSONObject().put("submissions", submissions).toString(2));
+        }
+    }
+
+    /**
+     * Grades a batch of submissions.
+     * @param args --batch dir [--output file] [--workers n] [--timeout seconds]
+     */
+    public static void main(String[] args) {
+        List<String> options = Arrays.asList(args);
+        int batch = options.indexOf("--batch");
+        if (batch < 0 || batch + 1 >= args.length) {
+            System.err.println("Usage: grade --batch <dir-of-submissions> [--output <file>] [--workers <n>] [--timeout <seconds>]");
+            System.exit(1);
+        }
+        int output = options.indexOf("--output");
+        int workers = options.indexOf("--workers");
+        int timeout = options.indexOf("--timeout");
+        File dir = new File(args[batch + 1]);
+        File summary = output >= 0 && output + 1 < args.length ? new File(args[output + 1]) : new File(dir, "grades.json");
+        int n = workers >= 0 && workers + 1 < args.length ? Integer.parseInt(args[workers + 1]) : Runtime.getRuntime().availableProcessors();
+        long seconds = timeout >= 0 && timeout + 1 < args.length ? Long.parseLong(args[timeout + 1]) : TIMEOUT;
+        try {
+            long start = System.currentTimeMillis();
+            List<Result> results = new BatchGrader(n, seconds * 1000).grade(dir);
+            write(results, summary);
+            results.forEach(r -> System.out.println(r.submission + ": " + r.grade));
+            System.out.printf("Graded %d submissions in %.1f s (%s)%n", results.size(), (System.currentTimeMillis() - start) / 1000.0, summary);
+        } catch (Exception ex) {
+            System.err.println("Batch grading failed: " + ex);
+            System.exit(1);
+        }
+    }
+}
@@ -3,6 +3,7 @@ package de.thl.jedunit;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
+import java.util.Arrays;
 import java.util.Scanner;
 
 public class CLI {
@@ -18,6 +19,22 @@ public class CLI {
     };
 
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("serve")) {
+            GradingServer.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("grade")) {
+            BatchGrader.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("query")) {
+            CohortQuery.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("watch")) {
+            Watcher.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
         for (String resource : RESOURCES) {
             try {
                 Scanner read = new Scanner(CLI.class.getResourceAsStream("/" + resource));
@@ -0,0 +1,200 @@
+package de.thl.jedunit;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import com.github.javaparser.ast.Node;
+import com.github.javaparser.printer.PrettyPrinterConfiguration;
+
+/**
+ * Runs a selector query (see Selector) against all submissions of a cohort,
+ * e.g. to collect statistics of an assignment or to hunt for cheats:
+ *
+ *   java -cp ".:*" de.thl.jedunit.CLI query --batch submissions --selector "method:has(MethodCallExpr[name=exit])" [--workers n]
+ *
+ * Every subdirectory of the batch directory is a submission directory (like for BatchGrader),
+ * all Java files within are queried. Files are parsed in parallel
+ * (one thread per core) via the parse cache (see SyntaxTree), so repeated queries
+ * do not parse unchanged files again. Only the ASTs kept by the parse cache are held in memory,
+ * so memory does not grow with the size of the cohort.
+ *
+ * Matches are streamed with file and position as soon as a file has been queried
+ * (matches of a file are reported together, files in no particular order).
+ *
+ * @author Nane Kratzke
+ */
+public class CohortQuery {
+
+    /**
+     * Node that matches a query.
+     */
+    public static class Match {
+
+        /**
+         * Matches are reported by their first line of code (without comments).
+         */
+        private static final PrettyPrinterConfiguration CODE = new PrettyPrinterConfiguration().setPrintComments(false);
+
+        public final String file;
+        public final int line;
+        public final int column;
+        public final String code;
+
+        Match(String file, Node node) {
+            this.file = file;
+            this.line = node.getBegin().map(p -> p.line).orElse(0);
+            this.column = node.getBegin().map(p -> p.column).orElse(0);
+            String code = node.toString(CODE).trim();
+            int eol = code.indexOf('\n');
+            this.code = eol < 0 ? code : code.substring(0, eol).trim() + " ...";
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s:%d:%d: %s", this.file, this.line, this.column, this.code);
+        }
+    }
+
+    /**
+     * Counts of a query run.
+     */
+    public static class Summary {
+        public final int files;
+        public final int unparsable;
+        public final int matchingFiles;
+        public final int matchingSubmissions;
+        public final int matches;
+
+        Summary(int files, int unparsable, int matchingFiles, int matchingSubmissions, int matches) {
+            this.files = files;
+            this.unparsable = unparsable;
+            this.matchingFiles = matchingFiles;
+            this.matchingSubmissions = matchingSubmissions;
+            this.matches = matches;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d matches in %d files of %d submissions (%d files queried, %d not parsable)",
+                this.matches, this.matchingFiles, this.matchingSubmissions, this.files, this.unparsable);
+        }
+    }
+
+    private final Selector selector;
+
+    private final int workers;
+
+    /**
+     * Creates a query.
+     * @param selector Selector expression (like "class:has(&gt; field:not([modifier=final]))")
+     * @param workers Number of files queried in parallel
+     * @throws IllegalArgumentException if the selector expression is invalid
+     */
+    public CohortQuery(String selector, int workers) {
+        this.selector = Selector.compile(selector);
+        this.workers = Math.max(1, workers);
+    }
+
+    /**
+     * Queries a file.
+     * @param file Java file
+     * @param name Name of the file to be reported
+     * @return Matches in document order (null if the file could not be parsed)
+     */
+    List<Match> query(File file, String name) {
+        SyntaxTree ast = SyntaxTree.of(file.getAbsolutePath());
+        if (ast == null) return null;
+        List<Match> matches = new LinkedList<>();
+        for (Node node : this.selector.select(ast.getCompilationUnit())) matches.add(new Match(name, node));
+        return matches;
+    }
+
+    /**
+     * Queries all Java files of all submission directories of a batch directory.
+     * @param batch Directory containing one subdirectory per submission
+     * @param matches Receives all matches (matches of a file are passed one after another,
+     *                never from more than one thread at a time)
+     * @return Summary
+     */
+    public Summary run(File batch, Consumer<Match> matches) throws IOException, InterruptedException {
+        File[] submissions = batch.listFiles(File::isDirectory);
+        if (submissions == null) throw new IOException("Not a directory: " + batch);
+        Path root = batch.getAbsoluteFile().toPath();
+        AtomicInteger files = new AtomicInteger();
+        AtomicInteger unparsable = new AtomicInteger();
+        AtomicInteger matchingFiles = new AtomicInteger();
+        AtomicInteger found = new AtomicInteger();
+        Set<String> matching = ConcurrentHashMap.newKeySet();
+        ForkJoinPool pool = new ForkJoinPool(this.workers);
+        try {
+            pool.submit(() -> Arrays.stream(submissions).parallel().forEach(submission -> {
+                try (Stream<Path> sources = Files.walk(submission.getAbsoluteFile().toPath())) {
+                    sources.filter(p -> p.toString().endsWith(".java") && Files.isRegularFile(p)).forEach(source -> {
+                        files.incrementAndGet();
+                        List<Match> hits = query(source.toFile(), root.relativize(source).toString());
+                        if (hits == null) {
+                            unparsable.incrementAndGet();
+                            return;
+                        }
+                        if (hits.isEmpty()) return;
+                        matchingFiles.incrementAndGet();
+                        found.addAndGet(hits.size());
+                        matching.add(submission.getName());
+                        synchronized (matches) {
+                            hits.forEach(matches);
+                        }
+                    });
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            })).get();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof UncheckedIOException) throw ((UncheckedIOException)ex.getCause()).getCause();
+            throw new IllegalStateException(ex.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        return new Summary(files.get(), unparsable.get(), matchingFiles.get(), matching.size(), found.get());
+    }
+
+    /**
+     * Queries a batch of submissions.
+     * @param args --batch dir --selector expression [--workers n]
+     */
+    public static void main(String[] args) {
+        List<String> options = Arrays.asList(args);
+        int batch = options.indexOf("--batch");
+        int selector = options.indexOf("--selector");
+        if (batch < 0 || batch + 1 >= args.length || selector < 0 || selector + 1 >= args.length) {
+            System.err.println("Usage: query --batch <dir-of-submissions> --selector <expression> [--workers <n>]");
+            System.exit(1);
+        }
+        int workers = options.indexOf("--workers");
+        int n = workers >= 0 && workers + 1 < args.length ? Integer.parseInt(args[workers + 1]) : Runtime.getRuntime().availableProcessors();
+        try {
+            long start = System.currentTimeMillis();
+            CohortQuery query = new CohortQuery(args[selector + 1], n);
+            Summary summary = query.run(new File(args[batch + 1]), System.out::println);
+            System.out.printf("%s in %.1f s%n", summary, (System.currentTimeMillis() - start) / 1000.0);
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            System.exit(1);
+        } catch (Exception ex) {
+            System.err.println("Query failed: " + ex);
+            System.exit(1);
+        }
+    }
+}
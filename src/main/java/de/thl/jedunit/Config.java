@@ -1,8 +1,13 @@
 package de.thl.jedunit;
 
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -129,6 +134,12 @@ public class Config {
      */
     public static int COLLECTION_INTERFACE_PENALTY = 25;
 
+    /**
+     * Option to resolve types of submissions via a symbol solver for inspections (see TypeResolver).
+     * Without resolution (or if a type can not be resolved) types are compared by their simple names.
+     */
+    public static boolean RESOLVE_TYPES = true;
+
     /**
      * Option to check that `System.out.println()` statements occur only in the `main()` method.
      */
@@ -139,4 +150,152 @@ public class Config {
      */
     public static int CONSOLE_OUTPUT_PENALTY = 25;
 
-}
\ No newline at end of file
+    /**
+     * Additional inspection rules (see Rule and PatternRule).
+     * Rules are evaluated together with the coding conventions (in a single traversal of each file).
+     * This list can be adapted in the configure method().
+     */
+    public static List<Rule> RULES = new LinkedList<Rule>();
+
+    /**
+     * Option to report the number of visited nodes and the time spent per inspection rule.
+     * Useful to find slow rules.
+     */
+    public static boolean RULE_STATISTICS = false;
+
+    /**
+     * Option to execute the test methods in parallel.
+     * Test methods must not depend on each other (e.g. via static state of a submission).
+     * Comments and points are reported in the same order as in a sequential run.
+     */
+    public static boolean PARALLEL_TESTS = false;
+
+    /**
+     * Time budget for every test method in milliseconds (0 means unlimited).
+     * A test that runs out of time is scored with 0 points.
+     * Can be overwritten per test via the timeout attribute of the Test annotation.
+     */
+    public static long TEST_TIMEOUT = 0;
+
+    /**
+     * Time budget for every check (test case) in milliseconds (0 means unlimited).
+     * A check that runs out of time fails with 0 points.
+     * Can be overwritten per test via the checkTimeout attribute of the Test annotation.
+     */
+    public static long CHECK_TIMEOUT = 0;
+
+    /**
+     * Memory budget for every check (test case) in megabytes allocated (0 means unlimited).
+     * A check that allocates more memory is aborted and fails with 0 points.
+     * Can be overwritten per test via the checkMemory attribute of the Test annotation.
+     */
+    public static long CHECK_MEMORY = 0;
+
+    /**
+     * Skips remaining inspections and tests as soon as the final grade can not change anymore
+     * (e.g. after an aborted evaluation or if penalties exceed all remaining test weights).
+     * Skipped checks are reported.
+     */
+    public static boolean FAIL_FAST = false;
+
+    /**
+     * Seed for the generation of random test data (0 means a random seed).
+     * A fixed seed makes evaluations reproducible (also with PARALLEL_TESTS),
+     * because every test draws from its own generator derived from the seed and its name.
+     */
+    public static long SEED = 0;
+
+    /**
+     * Directory of the result cache (null means no caching).
+     * Evaluations of unchanged submissions (changes of comments are ignored)
+     * are replayed from this cache instead of being evaluated again.
+     * Checks that evaluate source code comments should not use the result cache.
+     * Results are only cached if a fixed seed is set (see SEED).
+     */
+    public static String RESULT_CACHE = null;
+
+    /**
+     * Maximum size of the result cache in megabytes
+     * (least recently used results are evicted first).
+     */
+    public static long RESULT_CACHE_SIZE = 64;
+
+    /**
+     * Number of threads that parse the evaluated files concurrently before inspections start
+     * (1 means that files are parsed one after another when they are inspected).
+     */
+    public static int PARSER_THREADS = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Maximum number of parsed source files kept in memory (see SyntaxTree).
+     */
+    public static int PARSE_CACHE_SIZE = 256;
+
+    /**
+     * Maximum (estimated) memory of parsed source files kept in memory in megabytes (see SyntaxTree).
+     */
+    public static long PARSE_CACHE_MEMORY = 128;
+
+    /**
+     * Maximum size of an evaluated source file in kilobytes (0 means unlimited, see SourceLimits).
+     * Submissions with larger files are rejected without parsing them.
+     * All source limits are off by default (existing assignments are not affected),
+     * Checks classes opt in via the configure() method.
+     */
+    public static long MAX_FILE_SIZE = 0;
+
+    /**
+     * Maximum number of lines of an evaluated source file (0 means unlimited, see SourceLimits).
+     */
+    public static int MAX_LINES = 0;
+
+    /**
+     * Maximum nesting depth of brackets in an evaluated source file (0 means unlimited, see SourceLimits).
+     */
+    public static int MAX_NESTING = 0;
+
+    /**
+     * Maximum number of tokens of an evaluated source file (0 means unlimited, see SourceLimits).
+     */
+    public static int MAX_TOKENS = 0;
+
+    /**
+     * Default values of all options (captured when this class is loaded).
+     */
+    private static final Map<Field, Object> DEFAULTS = new HashMap<>();
+    static {
+        for (Field option : Config.class.getFields()) {
+            if (Modifier.isFinal(option.getModifiers())) continue;
+            try {
+                DEFAULTS.put(option, copy(option.get(null)));
+            } catch (IllegalAccessException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+    }
+
+    /**
+     * Resets all options to their defaults.
+     * Hosted evaluations (see GradingServer) evaluate several submissions in one JVM,
+     * so options set by the configure() method of one submission must not leak into the next one.
+     */
+    static void reset() {
+        for (Map.Entry<Field, Object> option : DEFAULTS.entrySet()) {
+            try {
+                option.getKey().set(null, copy(option.getValue()));
+            } catch (IllegalAccessException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+        EVALUATED_FILES = DSL.autoFiles();
+    }
+
+    /**
+     * Copies mutable collection options (configure() methods modify them in place).
+     */
+    private static Object copy(Object value) {
+        if (value instanceof Set) return new HashSet<>((Set<?>)value);
+        if (value instanceof List) return new LinkedList<>((List<?>)value);
+        return value;
+    }
+}
@@ -3,7 +3,6 @@ package de.thl.jedunit;
 import static de.thl.jedunit.DSL.CALLABLE;
 import static de.thl.jedunit.DSL.FIELD;
 import static de.thl.jedunit.DSL.comment;
-import static de.thl.jedunit.DSL.inspect;
 
 import java.io.File;
 import java.util.ArrayList;
@@ -14,6 +13,7 @@ import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.TreeMap;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -55,121 +55,148 @@ public class Constraints extends Evaluator {
         List<String> classes = Arrays.asList("Solution");
         List<String> calls   = Arrays.asList("System.exit", "Solution.");
 
+        List<Rule> cheats = Arrays.asList(new PatternRule(0, "Possible cheat detected")
+            .match(ImportDeclaration.class,
+                imp -> Config.CHEAT_IMPORTS.stream().anyMatch(danger -> imp.getName().asString().startsWith(danger)),
+                imp -> "[CHEAT] Forbidden import: " + imp.getName())
+            .match(MethodCallExpr.class,
+                call -> calls.stream().anyMatch(danger -> call.toString().startsWith(danger)),
+                call -> "[CHEAT] Forbidden call: " + call)
+            .match(ObjectCreationExpr.class,
+                obj -> classes.stream().anyMatch(danger -> obj.toString().contains(danger)),
+                obj -> "[CHEAT] Forbidden object creation: " + obj)
+            .match(FieldAccessExpr.class,
+                field -> classes.stream().anyMatch(danger -> field.toString().startsWith(danger)),
+                field -> "[CHEAT] Forbidden field access: " + field)
+            .suspects(scan -> scan.getImports().stream().anyMatch(imp -> Config.CHEAT_IMPORTS.stream().anyMatch(imp::startsWith))
+                || calls.stream().anyMatch(scan::references)
+                || classes.stream().anyMatch(scan::mentions))
+        );
+
+        SyntaxTree.prefetch(Config.EVALUATED_FILES);
+        List<RuleEngine.Findings> inspected = new LinkedList<>();
         for (String file : Config.EVALUATED_FILES) {
-            abortOn("Possible cheat detected", () -> inspect(file, ast -> 
-                ast.select(ImportDeclaration.class)
-                   .filter(imp -> Config.CHEAT_IMPORTS.stream().anyMatch(danger -> imp.getName().asString().startsWith(danger)))
-                   .annotate(imp -> "[CHEAT] Forbidden import: " + imp.getName())
-                   .exists() |
-                ast.select(MethodCallExpr.class)
-                   .filter(call -> calls.stream().anyMatch(danger -> call.toString().startsWith(danger)))
-                   .annotate(call -> "[CHEAT] Forbidden call: " + call)
-                   .exists() |
-                ast.select(ObjectCreationExpr.class)
-                   .filter(obj -> classes.stream().anyMatch(danger -> obj.toString().contains(danger)))
-                   .annotate(obj -> "[CHEAT] Forbidden object creation: " + obj)
-                   .exists() |
-                ast.select(FieldAccessExpr.class)
-                   .filter(field -> classes.stream().anyMatch(danger -> field.toString().startsWith(danger)))
-                   .annotate(field -> "[CHEAT] Forbidden field access: " + field)
-                   .exists()
-            ));
+            abortOn("Possible cheat detected", () -> {
+                RuleEngine.Findings findings = RuleEngine.inspect(file, cheats).get(0);
+                inspected.add(findings);
+                return findings.report(file);
+            });
         }
+        if (Config.RULE_STATISTICS) RuleEngine.statistics(inspected);
         comment("Everything fine");
     }
 
     @Inspection(description="Inspect source files for coding violations")
     public void conventions() {
+        List<Rule> rules = conventionRules();
+        rules.addAll(Config.RULES);
+        SyntaxTree.prefetch(Config.EVALUATED_FILES);
+        List<RuleEngine.Findings> inspected = new LinkedList<>();
         boolean allfine = true;
         for (String file : Config.EVALUATED_FILES) {
 
-            File f = new File(file);
+            File f = DSL.file(file);
             if (!f.exists()) {
                 comment("File not found: " + file); 
                 allfine &= false;
                 continue; 
             }
 
-            if (Config.CHECK_IMPORTS) allfine &= !penalize(Config.IMPORT_PENALTY, "Non-allowed libraries", () -> inspect(file, ast ->
-                ast.select(ImportDeclaration.class)
-                   .filter(imp -> !Config.ALLOWED_IMPORTS.stream().anyMatch(lib -> imp.getName().asString().startsWith(lib)))
-                   .annotate(imp -> "Import of " + imp.getName() + " not allowed")
-                   .exists()
-            ));
-
-            if (!Config.ALLOW_LOOPS) allfine &= !penalize(Config.LOOP_PENALTY, "No loops", () -> inspect(file, ast ->
-                ast.select(WhileStmt.class).annotate("while loop not allowed").exists() |
-                ast.select(ForStmt.class).annotate("for loop not allowed").exists() |
-                ast.select(ForEachStmt.class).annotate("for loop not allowed").exists() |
-                ast.select(DoStmt.class).annotate("do while loop not allowed").exists() |
-                ast.select(MethodCallExpr.class).filter(m -> m.toString().contains(".forEach(")).annotate("forEach not allowed").exists()
-            ));
-
-            if (!Config.ALLOW_METHODS) allfine &= !penalize(Config.METHOD_PENALTY, "No methods (except main)", () -> inspect(file, ast ->
-                ast.select(MethodDeclaration.class)
-                   .filter(m -> !m.getNameAsString().equals("main"))
-                   .annotate("No methods except main() method allowed")
-                   .exists()
-            ));
-
-            if (!Config.ALLOW_LAMBDAS) allfine &= !penalize(Config.LAMBDA_PENALITY, "No lambdas", () -> inspect(file, ast ->
-                ast.select(LambdaExpr.class).annotate(l -> "lambda expression " + l + " not allowed").exists()
-            ));
-            
-            if (!Config.ALLOW_DATAFIELDS) allfine &= !penalize(Config.DATAFIELD_PENALTY, "No global variables", () -> inspect(file, ast ->
-                ast.select(FieldDeclaration.class)
-                   .filter(field -> !(field.isStatic() && field.isFinal()))
-                   .annotate("No datafields allowed. Add the final static modifier to make it a constant value.")
-                   .exists()
-            ));
-
-            if (!Config.ALLOW_INNER_CLASSES) allfine &= !penalize(Config.INNER_CLASS_PENALTY, "No inner classes", () -> inspect(file, ast -> 
-                ast.select(ClassOrInterfaceDeclaration.class)
-                   .select(ClassOrInterfaceDeclaration.class)
-                   .distinct()
-                   .annotate("Inner classes not allowed. So ugly.")
-                   .exists()
-            ));
-
-            if (!Config.ALLOW_CONSOLE_OUTPUT) allfine &= !penalize(Config.CONSOLE_OUTPUT_PENALTY, "No console output in methods (except main)", () -> inspect(file, ast ->
-                ast.select(MethodDeclaration.class)
-                   .filter(m -> !m.getDeclarationAsString(false, false, false).equals("void main(String[])"))
-                   .select(MethodCallExpr.class, expr -> expr.toString().startsWith("System.out.print"))
-                   .annotate(call -> "Console output not allowed here")
-                   .exists()
-            ));
-
-            if (Config.CHECK_COLLECTION_INTERFACES) {
-                List<Class<?>> collections = Arrays.asList(
-                    HashMap.class, TreeMap.class, HashSet.class, LinkedList.class, ArrayList.class
-                );
-
-                allfine &= !penalize(Config.COLLECTION_INTERFACE_PENALTY, "Use Map, List, and Set interfaces for return types", () -> inspect(file, ast ->
-                    ast.select(MethodDeclaration.class)
-                       .filter(m -> collections.stream().anyMatch(type -> m.getType().asString().startsWith(type.getSimpleName())))
-                       .annotate(m -> "Do not use " + m.getType() + " as return type")
-                       .exists()
-                ));
-
-                allfine &= !penalize(Config.COLLECTION_INTERFACE_PENALTY, "Use Map, List, and Set interfaces for parameters", () -> inspect(file, ast ->
-                    ast.select(Parameter.class)
-                       .filter(param -> collections.stream().anyMatch(type -> param.getType().asString().startsWith(type.getSimpleName())))
-                       .annotate(p -> "Do not use " + p.getType() + " as parameter type")
-                       .exists()
-                ));
-
-                allfine &= !penalize(Config.COLLECTION_INTERFACE_PENALTY, "Use Map, List, and Set interfaces for variable declarators", () -> inspect(file, ast -> 
-                    ast.select(VariableDeclarator.class)
-                       .filter(v -> collections.stream().anyMatch(type -> v.getType().asString().startsWith(type.getSimpleName())))
-                       .annotate(v -> "Do not use " + v.getType() + " as variable declarator")
-                       .exists()
-                ));
+            for (RuleEngine.Findings findings : RuleEngine.inspect(file, rules)) {
+                inspected.add(findings);
+                allfine &= !penalize(findings.rule.getPenalty(), findings.rule.getRemark(), () -> findings.report(file));
             }
         }
+        if (Config.RULE_STATISTICS) RuleEngine.statistics(inspected);
         
         if (allfine) comment("Everything fine");
     }
 
+    /**
+     * Rules for coding conventions (enabled by the config).
+     * All rules are evaluated in a single traversal of each file.
+     * Files that are not suspect for any rule (according to a pre-scan) are not traversed.
+     */
+    private List<Rule> conventionRules() {
+        List<Rule> rules = new LinkedList<>();
+
+        if (Config.CHECK_IMPORTS) rules.add(new PatternRule(Config.IMPORT_PENALTY, "Non-allowed libraries")
+            .match(ImportDeclaration.class,
+                imp -> !Config.ALLOWED_IMPORTS.stream().anyMatch(lib -> imp.getName().asString().startsWith(lib)),
+                imp -> "Import of " + imp.getName() + " not allowed")
+            .suspects(scan -> scan.getImports().stream().anyMatch(imp -> !Config.ALLOWED_IMPORTS.stream().anyMatch(imp::startsWith)))
+        );
+
+        if (!Config.ALLOW_LOOPS) rules.add(new PatternRule(Config.LOOP_PENALTY, "No loops")
+            .match(WhileStmt.class, "while loop not allowed")
+            .match(ForStmt.class, "for loop not allowed")
+            .match(ForEachStmt.class, "for loop not allowed")
+            .match(DoStmt.class, "do while loop not allowed")
+            .match(MethodCallExpr.class, m -> m.toString().contains(".forEach("), m -> "forEach not allowed")
+            .suspects(scan -> Stream.of("while", "for", "do", "forEach").anyMatch(scan::contains) || scan.mentions(".forEach("))
+        );
+
+        if (!Config.ALLOW_METHODS) rules.add(new PatternRule(Config.METHOD_PENALTY, "No methods (except main)")
+            .match(MethodDeclaration.class, m -> !m.getNameAsString().equals("main"), m -> "No methods except main() method allowed")
+            .suspects(scan -> scan.getMethodNames().stream().anyMatch(name -> !name.equals("main")))
+        );
+
+        if (!Config.ALLOW_LAMBDAS) rules.add(new PatternRule(Config.LAMBDA_PENALITY, "No lambdas")
+            .match(LambdaExpr.class, l -> true, l -> "lambda expression " + l + " not allowed")
+            .suspects(scan -> scan.contains("->"))
+        );
+
+        if (!Config.ALLOW_DATAFIELDS) rules.add(new PatternRule(Config.DATAFIELD_PENALTY, "No global variables")
+            .match(FieldDeclaration.class,
+                field -> !(field.isStatic() && field.isFinal()),
+                field -> "No datafields allowed. Add the final static modifier to make it a constant value.")
+            .suspects(scan -> scan.getFieldModifiers().stream().anyMatch(m -> !(m.contains("static") && m.contains("final"))))
+        );
+
+        if (!Config.ALLOW_INNER_CLASSES) rules.add(new PatternRule(Config.INNER_CLASS_PENALTY, "No inner classes")
+            .matchWithin(ClassOrInterfaceDeclaration.class, c -> true,
+                ClassOrInterfaceDeclaration.class, c -> true,
+                c -> "Inner classes not allowed. So ugly.", true)
+            .suspects(scan -> scan.getDeclaredClasses() > 1)
+        );
+
+        if (!Config.ALLOW_CONSOLE_OUTPUT) rules.add(new PatternRule(Config.CONSOLE_OUTPUT_PENALTY, "No console output in methods (except main)")
+            .matchWithin(MethodDeclaration.class, m -> !m.getDeclarationAsString(false, false, false).equals("void main(String[])"),
+                MethodCallExpr.class, expr -> expr.toString().startsWith("System.out.print"),
+                call -> "Console output not allowed here", false)
+            .suspects(scan -> scan.referencesOutsideMain("System.out.print"))
+        );
+
+        if (Config.CHECK_COLLECTION_INTERFACES) {
+            List<Class<?>> collections = Arrays.asList(
+                HashMap.class, TreeMap.class, HashSet.class, LinkedList.class, ArrayList.class
+            );
+            Predicate<TokenScan> mentioned = scan -> collections.stream().anyMatch(type -> scan.contains(type.getSimpleName()));
+
+            rules.add(new PatternRule(Config.COLLECTION_INTERFACE_PENALTY, "Use Map, List, and Set interfaces for return types")
+                .match(MethodDeclaration.class,
+                    m -> collections.stream().anyMatch(type -> TypeResolver.is(m.getType(), type)),
+                    m -> "Do not use " + m.getType() + " as return type")
+                .suspects(mentioned)
+            );
+
+            rules.add(new PatternRule(Config.COLLECTION_INTERFACE_PENALTY, "Use Map, List, and Set interfaces for parameters")
+                .match(Parameter.class,
+                    param -> collections.stream().anyMatch(type -> TypeResolver.is(param.getType(), type)),
+                    p -> "Do not use " + p.getType() + " as parameter type")
+                .suspects(mentioned)
+            );
+
+            rules.add(new PatternRule(Config.COLLECTION_INTERFACE_PENALTY, "Use Map, List, and Set interfaces for variable declarators")
+                .match(VariableDeclarator.class,
+                    v -> collections.stream().anyMatch(type -> TypeResolver.is(v.getType(), type)),
+                    v -> "Do not use " + v.getType() + " as variable declarator")
+                .suspects(mentioned)
+            );
+        }
+        return rules;
+    }
+
     /**
      * Compares the structure of a submitted class with a reference class.
      * Reports all structural differences between both classes of following kinds:
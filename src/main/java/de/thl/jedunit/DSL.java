@@ -59,11 +59,22 @@ public class DSL {
     static JSONObject json = null;
     static JSONArray ja = new JSONArray();
 
+    /**
+     * Directory of the evaluated submission.
+     * Relative file names are resolved against this directory.
+     */
+    static File directory = new File(".");
+
     /**
      * Random generator.
      */
     private static final Random RANDOM = new Random();
 
+    /**
+     * Random generator of the test running on the current thread (see random()).
+     */
+    private static final ThreadLocal<Random> TEST_RANDOM = new ThreadLocal<>();
+
     /**
      * Regular expression for default characters.
      */
@@ -150,33 +161,79 @@ public class DSL {
      * @return Set of filenames ending on ".java"
      */
     public static Set<String> autoFiles() {
-        return Stream.of(new File(".").listFiles())
+        return Stream.of(directory.listFiles())
             .filter(f -> f.isFile())
             .filter(f -> f.getName().endsWith(".java"))
             .map(f -> f.getName())
             .collect(Collectors.toSet());
     }
 
+    /**
+     * Resolves a file name against the directory of the evaluated submission.
+     * @param name File name (absolute names are kept as they are)
+     * @return File object
+     */
+    static File file(String name) {
+        File f = new File(name);
+        return f.isAbsolute() ? f : new File(directory, name);
+    }
+
+    /**
+     * Seeds the generation of random test data.
+     * @param seed Seed
+     */
+    static void seed(long seed) {
+        RANDOM.setSeed(seed);
+    }
+
+    /**
+     * Random generator of the current thread.
+     * This is the generator of the running test (if it has one), otherwise the shared generator.
+     */
+    static Random random() {
+        Random random = TEST_RANDOM.get();
+        return random == null ? RANDOM : random;
+    }
+
+    /**
+     * Sets the random generator of the test running on the current thread.
+     * @param random Random generator (null: the shared generator)
+     */
+    static void random(Random random) {
+        if (random == null) TEST_RANDOM.remove();
+        else TEST_RANDOM.set(random);
+    }
+
+    /**
+     * Discards all comments collected so far.
+     */
+    static void resetComments() {
+        json = null;
+        ja = new JSONArray();
+    }
+
     /**
      * Adds a comment for VPL via console output.
      */
     public static void comment(String c) {
-        if(json == null) {
-            json = new JSONObject();
-        }
-        JSONObject temp = new JSONObject();
-        // if (c.contains("\n")) {
-        //System.out.println("<|--");
-        try {
-            temp.put("output", c);
-            ja.put(temp);
-        } catch(org.json.JSONException e) {
-            System.out.println("ERROR!");
-            System.out.println(c);
-        }
+        Ledger.run(() -> {
+            if(json == null) {
+                json = new JSONObject();
+            }
+            JSONObject temp = new JSONObject();
+            // if (c.contains("\n")) {
+            //System.out.println("<|--");
+            try {
+                temp.put("output", c);
+                ja.put(temp);
+            } catch(org.json.JSONException e) {
+                System.out.println("ERROR!");
+                System.out.println(c);
+            }
 
-        //System.out.println("--|>");
-        // } else System.out.println("Comment :=>>" + c);
+            //System.out.println("--|>");
+            // } else System.out.println("Comment :=>>" + c);
+        });
     }
 
     /**
@@ -276,6 +333,7 @@ public class DSL {
         String r = "";
         for (String regex : regexps) {
             Generex g = new Generex(regex);
+            g.setSeed(random().nextLong());
             r += g.random();
         }
         return r;
@@ -297,7 +355,7 @@ public class DSL {
      * @return true or false
      */
     public static boolean b() {
-        return RANDOM.nextBoolean();
+        return random().nextBoolean();
     }
 
     /**
@@ -305,7 +363,7 @@ public class DSL {
      * @return random value
      */
     public static int i() {
-        return RANDOM.nextInt();
+        return random().nextInt();
     }
 
     /**
@@ -314,7 +372,7 @@ public class DSL {
      * @return random value in [0, max[
      */
     public static int i(int max) {
-        return RANDOM.nextInt(max);
+        return random().nextInt(max);
     }
 
     /**
@@ -332,7 +390,7 @@ public class DSL {
      * @return random double value in [0.0, 1.0[
      */
     public static double d() {
-        return RANDOM.nextDouble();
+        return random().nextDouble();
     }
 
     /**
@@ -341,7 +399,7 @@ public class DSL {
      * @return random value in [0.0, max[
      */
     public static double d(double max) {
-        return RANDOM.nextDouble() * max;
+        return random().nextDouble() * max;
     }
 
     /**
@@ -3,13 +3,29 @@ package de.thl.jedunit;
 import static de.thl.jedunit.DSL.comment;
 import static de.thl.jedunit.DSL.t;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Random;
 import java.util.Scanner;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import org.json.JSONArray;
 
 import io.vavr.Tuple2;
 
@@ -52,6 +68,11 @@ public class Evaluator {
      */
     protected static int testcase = 0;
 
+    /**
+     * Indicates whether the evaluation has been aborted (see abortOn).
+     */
+    private boolean aborted = false;
+
     /**
      * Current points (truncated to [0, 100])
      * @return points [0, 100]
@@ -82,19 +103,37 @@ public class Evaluator {
      * @param check Condition to check (success)
      */
     public final void grading(int p, String comment, Supplier<Boolean> check) {
-        testcase++;
+        boolean ok = false;
+        Exception failure = null;
         try {
-            if (check.get()) {
-                results.add(t(p, p));
+            ok = Watchdog.check(check::get);
+        } catch (Exception ex) {
+            failure = ex;
+        }
+        grading(p, comment, ok, failure);
+    }
+
+    /**
+     * Records the outcome of an already evaluated check.
+     * @param p Points to add (on success)
+     * @param comment Comment to show
+     * @param ok Whether the check was passed
+     * @param failure Exception the check failed with (or null)
+     */
+    final void grading(int p, String comment, boolean ok, Exception failure) {
+        Ledger.run(this, check -> {
+            testcase++;
+            if (failure != null) {
+                check.results.add(t(0, p));
+                comment("Check " + testcase + ": [FAILED due to " + failure + "] " + comment + " (0 of " + p + " points)");
+            } else if (ok) {
+                check.results.add(t(p, p));
                 comment("Check " + testcase + ": [OK] " + comment + " (" + p + " points)");
             } else {
-                results.add(t(0, p));
+                check.results.add(t(0, p));
                 comment("Check " + testcase + ": [FAILED] " + comment + " (0 of " + p + " points)");
             }
-        } catch (Exception ex) {
-            results.add(t(0, p));
-            comment("Check " + testcase + ": [FAILED due to " + ex + "] " + comment + " (0 of " + p + " points)");
-        }
+        });
     }
 
     /**
@@ -111,11 +150,13 @@ public class Evaluator {
     public final boolean penalize(int penalty, String remark, Supplier<Boolean> violation) {
         try {
             if (!violation.get()) return false;
-            this.percentage -= penalty / 100.0;
-            comment(String.format("[FAILED] %s (-%d%% on total result)", remark, penalty));
+            Ledger.run(this, check -> {
+                check.percentage -= penalty / 100.0;
+                comment(String.format("[FAILED] %s (-%d%% on total result)", remark, penalty));
+            });
             return true;
         } catch (Exception ex) {
-            comment("[FAILED due to " + ex + "] " + remark);
+            Ledger.run(() -> comment("[FAILED due to " + ex + "] " + remark));
             return true;
         }
     }
@@ -127,14 +168,17 @@ public class Evaluator {
     protected final void abortOn(String comment, Supplier<Boolean> violation) {
         try {
             if (!violation.get()) return;
-            comment("Evaluation aborted! " + comment);
-            this.percentage = 0;
-            if (REALWORLD) {
-                grade();
-                System.exit(1);
-            }
+            Ledger.run(this, check -> {
+                comment("Evaluation aborted! " + comment);
+                check.percentage = 0;
+                check.aborted = true;
+                if (REALWORLD) {
+                    check.grade();
+                    exit(1);
+                }
+            });
         } catch (Exception ex) {
-            comment("[FAILED due to " + ex + "] " + comment);
+            Ledger.run(() -> comment("[FAILED due to " + ex + "] " + comment));
         }
     }
 
@@ -172,30 +216,185 @@ public class Evaluator {
         return methods;
     }
 
+    /**
+     * Invokes a test or inspection method.
+     * Aborts of hosted evaluations are passed through.
+     */
+    private void invoke(Method method) throws Exception {
+        try {
+            method.invoke(this);
+        } catch (InvocationTargetException ex) {
+            if (ex.getCause() instanceof Abort) throw (Abort)ex.getCause();
+            throw ex;
+        }
+    }
+
     /**
      * Executes all methods annoted with a Test annotation.
      * Methods are executed according to their alphabetical order.
+     * Methods are executed in parallel if Config.PARALLEL_TESTS is set
+     * (but reported in alphabetical order as well).
      */
     public final void runTests() {
         comment("Begin Tests");
-        allMethodsOf(this.getClass())
+        List<Method> tests = testMethods();
+        if (Config.PARALLEL_TESTS) runParallel(tests);
+        else for (int i = 0; i < tests.size(); i++) {
+            if (skipped(tests.subList(i, tests.size()))) return;
+            Method method = tests.get(i);
+            runTest(method, () -> replayable(method, () -> supervise(method)));
+        }
+    }
+
+    /**
+     * Test methods in alphabetical order.
+     */
+    private List<Method> testMethods() {
+        return allMethodsOf(this.getClass())
             .stream()
             .filter(method -> method.isAnnotationPresent(Test.class))
             .sorted((m1, m2) -> m1.getName().compareTo(m2.getName()))
-            .forEach(method -> {
-                try {
-                    Test t = method.getAnnotation(Test.class);
-                    comment(String.format("[%.2f%%]: ", t.weight() * 100) + t.description());
-                    results.clear();
-                    method.invoke(this);
-                    grade(t.weight(), results);
-                    //comment("");
-                } catch (Exception ex) {
-                    comment("Test " + method.getName() + " failed completely." + ex);
-                    grade();
-                }
-                results.clear();
-            });
+            .collect(Collectors.toList());
+    }
+
+    /**
+     * Checks whether the final grade can not change anymore (only in Config.FAIL_FAST mode).
+     * This is the case if the evaluation has been aborted or if not even
+     * full points for all remaining tests would result in more than 0 points.
+     * @param remaining Sum of weights of all tests not executed so far
+     */
+    private boolean isDecided(double remaining) {
+        if (!Config.FAIL_FAST) return false;
+        return this.aborted || Math.round((this.percentage + remaining) * MAX) <= 0;
+    }
+
+    /**
+     * Skips the remaining tests if the final grade can not change anymore.
+     * @param remaining Tests not executed so far
+     * @return true, if the tests have been skipped
+     */
+    private boolean skipped(List<Method> remaining) {
+        double weights = remaining.stream().mapToDouble(method -> method.getAnnotation(Test.class).weight()).sum();
+        if (!isDecided(weights)) return false;
+        remaining.forEach(method -> {
+            Test t = method.getAnnotation(Test.class);
+            skip(String.format("[%.2f%%]: ", t.weight() * 100) + t.description());
+        });
+        return true;
+    }
+
+    /**
+     * Reports a check that is not executed because the final grade can not change anymore.
+     */
+    private void skip(String check) {
+        comment("[SKIPPED] " + check + " (final grade can not change anymore)");
+    }
+
+    /**
+     * Invokes a test method under the time and memory budgets of the test.
+     * Budgets of the Test annotation take precedence over configured budgets.
+     * With a fixed seed (see Config.SEED) every test draws its random test data
+     * from its own generator (derived from the seed and the name of the test),
+     * so test data does not depend on the order (or parallelism) of tests.
+     */
+    private void supervise(Method method) throws Exception {
+        Test t = method.getAnnotation(Test.class);
+        long budget = t.timeout() > 0 ? t.timeout() : Config.TEST_TIMEOUT;
+        long checkTime = t.checkTimeout() > 0 ? t.checkTimeout() : Config.CHECK_TIMEOUT;
+        long checkMemory = t.checkMemory() > 0 ? t.checkMemory() : Config.CHECK_MEMORY;
+        Watchdog.Budget checkBudget = new Watchdog.Budget(checkTime, checkMemory << 20);
+        if (Config.SEED != 0) DSL.random(new Random(31 * Config.SEED + method.getName().hashCode()));
+        try {
+            Watchdog.test(() -> {
+                invoke(method);
+                return null;
+            }, budget, checkBudget);
+        } finally {
+            DSL.random(null);
+        }
+    }
+
+    /**
+     * Runs a test method and grades its results.
+     * @param method Test method
+     * @param execution Executes the test method (or replays its recorded execution)
+     */
+    private void runTest(Method method, Execution execution) {
+        try {
+            Test t = method.getAnnotation(Test.class);
+            comment(String.format("[%.2f%%]: ", t.weight() * 100) + t.description());
+            results.clear();
+            execution.run();
+            grade(t.weight(), results);
+            //comment("");
+        } catch (Watchdog.BudgetExceeded ex) {
+            comment("Test " + method.getName() + " [FAILED due to " + ex + "]");
+            grade();
+        } catch (Exception ex) {
+            comment("Test " + method.getName() + " failed completely." + ex);
+            grade();
+        }
+        results.clear();
+    }
+
+    /**
+     * Executes a test method (or replays its recorded execution).
+     */
+    interface Execution {
+        void run() throws Exception;
+    }
+
+    /**
+     * Executes a test or inspection method.
+     * Watched evaluations replay the ledger of an earlier execution instead
+     * if nothing the method depends on has changed (see LedgerCache).
+     */
+    private void replayable(Method method, Execution execution) throws Exception {
+        if (LEDGERS == null) execution.run();
+        else LEDGERS.run(this, method, execution);
+    }
+
+    /**
+     * Executes all test methods on a thread pool.
+     * Each test records its effects in its own ledger.
+     * The ledgers are replayed in alphabetical order of the test methods,
+     * so the report is identical to a sequential run.
+     * @param tests Test methods (in alphabetical order)
+     */
+    private void runParallel(List<Method> tests) {
+        PrintStream console = System.out;
+        ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), task -> {
+            Thread worker = new Thread(task, "JEdUnit test");
+            worker.setDaemon(true);
+            return worker;
+        });
+        try {
+            Ledger.recordConsole();
+            List<Future<Ledger>> ledgers = new LinkedList<>();
+            for (Method method : tests) {
+                ledgers.add(pool.submit(() -> Ledger.record(() -> {
+                    supervise(method);
+                    return null;
+                })));
+            }
+            Iterator<Future<Ledger>> ledger = ledgers.iterator();
+            for (int i = 0; i < tests.size(); i++) {
+                if (skipped(tests.subList(i, tests.size()))) return;
+                Method method = tests.get(i);
+                Future<Ledger> recorded = ledger.next();
+                runTest(method, () -> {
+                    try {
+                        recorded.get().replay();
+                    } catch (ExecutionException ex) {
+                        if (ex.getCause() instanceof Error) throw (Error)ex.getCause();
+                        throw (Exception)ex.getCause();
+                    }
+                });
+            }
+        } finally {
+            pool.shutdownNow();
+            System.setOut(console);
+        }
     }
 
     /**
@@ -204,16 +403,21 @@ public class Evaluator {
      */
     public final void runInspections() {
         comment("Begin Code Inspection");
+        double tests = testMethods().stream().mapToDouble(method -> method.getAnnotation(Test.class).weight()).sum();
         allMethodsOf(this.getClass())
             .stream()
             .filter(method -> method.isAnnotationPresent(Inspection.class))
             .sorted((m1, m2) -> m1.getName().compareTo(m2.getName()))
             .forEach(method -> {
+                if (isDecided(tests)) {
+                    skip(method.getAnnotation(Inspection.class).description());
+                    return;
+                }
                 try {
                     results.clear();
                     Inspection i = method.getAnnotation(Inspection.class);
                     comment("" + i.description());
-                    method.invoke(this);
+                    replayable(method, () -> invoke(method));
                     grade();
                     //comment("");
                 } catch (Exception ex) {
@@ -230,13 +434,57 @@ public class Evaluator {
      */
     public static boolean REALWORLD = true;
 
+    /**
+     * Indicates whether JEdUnit is hosted by a long-running process (see GradingServer).
+     * Hosted evaluations must not terminate the JVM.
+     */
+    static boolean HOSTED = false;
+
+    /**
+     * Ledgers of inspections and tests kept across evaluations (see Watcher).
+     * Null, if every evaluation executes all inspections and tests.
+     */
+    static LedgerCache LEDGERS = null;
+
+    /**
+     * Raised instead of terminating the JVM if a hosted evaluation is aborted.
+     */
+    static class Abort extends Error {
+        private static final long serialVersionUID = 1L;
+
+        Abort(int status) {
+            super("Evaluation aborted with status " + status);
+        }
+    }
+
+    /**
+     * Terminates the evaluation.
+     * @param status exit status
+     */
+    static void exit(int status) {
+        if (HOSTED) throw new Abort(status);
+        System.exit(status);
+    }
+
+    /**
+     * Prepares the evaluation of a submission directory.
+     * Resets all state that is left over from previous evaluations in the same JVM.
+     * @param directory submission directory
+     */
+    static void prepare(File directory) {
+        DSL.directory = directory;
+        DSL.resetComments();
+        Config.reset();
+        testcase = 0;
+    }
+
     /**
      * This method evaluates the checkstyle log file.
      */
     public final void checkstyle() {
         try {
             comment("Begin Checkstyle");
-            Scanner in = new Scanner(new File("checkstyle.log"));
+            Scanner in = new Scanner(DSL.file("checkstyle.log"));
             while (in.hasNextLine()) {
                 String result = in.nextLine();
                 for (String file : Config.EVALUATED_FILES) {
@@ -262,6 +510,107 @@ public class Evaluator {
         }
     }
 
+    /**
+     * Runs a complete evaluation (configuration, checkstyle, inspections and tests).
+     * Submissions with files that exceed the configured limits are rejected (see SourceLimits).
+     * @param check Checks object
+     */
+    static void evaluate(Constraints check) {
+        //comment("JEdUnit " + Config.VERSION);
+        //comment("");
+        check.configure();
+        if (Config.SEED != 0) DSL.seed(Config.SEED);
+        if (Config.RESOLVE_TYPES) TypeResolver.prewarm();
+        PrintStream console = System.out;
+        // Output of checks that have been aborted (see Watchdog) is discarded for the whole evaluation
+        Ledger.recordConsole();
+        SyntaxTree.storeInstructorFiles(DSL.directory);
+        try {
+            String violation = SourceLimits.violation(Config.EVALUATED_FILES);
+            if (violation != null) {
+                check.abortOn("Submission rejected: " + violation, () -> true);
+                check.grade();
+            }
+            else if (Config.RESULT_CACHE == null || Config.SEED == 0) run(check);
+            else runCached(check);
+            comment(String.format("Finished: %d points", check.getPoints()));
+        } finally {
+            SyntaxTree.storeInstructorFiles(null);
+            System.setOut(console);
+        }
+    }
+
+    /**
+     * Runs checkstyle evaluation, inspections and tests.
+     * @param check Checks object
+     */
+    private static void run(Constraints check) {
+        if (Config.CHECKSTYLE) check.checkstyle();
+        //comment("");
+        check.runInspections();
+        check.runTests();
+    }
+
+    /**
+     * Replays the result of an identical evaluation from the result cache (see Config.RESULT_CACHE).
+     * Only used with a fixed seed (evaluations with random seeds are not reproducible).
+     * If there is no such result, the evaluation is run and its result is cached
+     * (unless the evaluation is aborted).
+     * @param check Checks object
+     */
+    private static void runCached(Constraints check) {
+        ResultCache cache = new ResultCache(new File(Config.RESULT_CACHE), Config.RESULT_CACHE_SIZE << 20);
+        String key;
+        try {
+            key = ResultCache.key(check);
+        } catch (IOException ex) {
+            run(check);
+            return;
+        }
+
+        ResultCache.Result cached = cache.lookup(key);
+        if (cached != null) {
+            System.out.print(cached.output);
+            for (int i = 0; i < cached.comments.length(); i++) DSL.ja.put(cached.comments.get(i));
+            check.percentage = cached.percentage;
+            return;
+        }
+
+        PrintStream console = System.out;
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        int comments = DSL.ja.length();
+        try {
+            System.setOut(new PrintStream(new OutputStream() {
+                @Override
+                public void write(int b) {
+                    console.write(b);
+                    output.write(b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                    console.write(b, off, len);
+                    output.write(b, off, len);
+                }
+            }, true, "UTF-8"));
+            run(check);
+        } catch (UnsupportedEncodingException ex) {
+            throw new IllegalStateException(ex);
+        } finally {
+            System.out.flush();
+            System.setOut(console);
+        }
+        if (((Evaluator)check).aborted) return;
+
+        JSONArray evaluation = new JSONArray();
+        for (int i = comments; i < DSL.ja.length(); i++) evaluation.put(DSL.ja.get(i));
+        try {
+            cache.store(key, new ResultCache.Result(new String(output.toByteArray(), StandardCharsets.UTF_8), evaluation, check.percentage));
+        } catch (IOException ex) {
+            // Evaluation has been reported, caching is optional
+        }
+    }
+
     /**
      * Runs the evaluation.
      * @param args command line options (not evaluated)
@@ -269,14 +618,7 @@ public class Evaluator {
     public static final void main(String[] args) {
         try {
             Constraints check = (Constraints)Class.forName("Checks").getDeclaredConstructor().newInstance();
-            //comment("JEdUnit " + Config.VERSION);
-            //comment("");
-            check.configure();
-            if (Config.CHECKSTYLE) check.checkstyle();
-            //comment("");
-            check.runInspections();
-            check.runTests();
-            comment(String.format("Finished: %d points", check.getPoints()));
+            evaluate(check);
         } catch (Exception ex) {
             comment("Severe error: " + ex);
         }
@@ -0,0 +1,231 @@
+package de.thl.jedunit;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.github.javaparser.JavaParser;
+
+/**
+ * Long-running grading daemon that evaluates many submissions in one warm JVM.
+ *
+ * Each request is a line with the path of a submission directory.
+ * The directory must be prepared like a VPL evaluation directory
+ * (Checks.java, Solution.java, submission files, checkstyle.log).
+ * Sources are compiled in memory (see SourceCompiler).
+ *
+ * Classes are loaded by a class loader hierarchy:
+ * JEdUnit and library classes are loaded by the application class loader,
+ * the instructor solution is loaded once per assignment by a shared class loader,
+ * and the classes of a submission (and the checks referring to them) are loaded
+ * by a child class loader per submission. This child class loader is discarded
+ * after grading, so its classes can be unloaded.
+ * The server answers with the console output that Evaluator.main() would produce
+ * for this directory, followed by a trailer of two lines: the final grade (prefixed with GRADE)
+ * and all comments of the evaluation (as JSON array prefixed with COMMENTS).
+ * Clients must only evaluate the trailer, because the output before contains
+ * the output of the submission.
+ * Each response is preceded by a line with its length in bytes (UTF-8),
+ * so no output of a submission can end a response early (see readResponse()).
+ *
+ * Requests are read from stdin, or from local connections if a port is given:
+ *
+ *   java -cp ".:*" de.thl.jedunit.GradingServer [port]
+ *
+ * Submissions are evaluated one after another.
+ *
+ * @author Nane Kratzke
+ */
+public class GradingServer {
+
+    /**
+     * Prefixes the final grade of an evaluation (first line of the trailer).
+     */
+    public static final String GRADE = "Grade :=>> ";
+
+    /**
+     * Prefixes the comments of an evaluation (last line of the trailer).
+     */
+    public static final String COMMENTS = "Comments :=>> ";
+
+    /**
+     * Compiler (keeps the instructor-owned classes of already seen assignments).
+     */
+    private final SourceCompiler compiler = new SourceCompiler();
+
+    /**
+     * Maximum number of assignments whose solution class loader is kept
+     * (like their shared classes, see SourceCompiler).
+     */
+    private static final int ASSIGNMENTS = SourceCompiler.ASSIGNMENTS;
+
+    /**
+     * Class loaders of instructor solutions by assignment (least recently used first).
+     */
+    private final Map<String, ClassLoader> solutions = new LinkedHashMap<String, ClassLoader>(ASSIGNMENTS, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ClassLoader> eldest) {
+            return size() > ASSIGNMENTS;
+        }
+    };
+
+    /**
+     * Creates a grading server and warms up the parser.
+     */
+    public GradingServer() {
+        Evaluator.HOSTED = true;
+        JavaParser.parse(CLI.class.getResourceAsStream("/Solution.java.template"));
+    }
+
+    /**
+     * Evaluates a submission directory.
+     * @param directory Submission directory
+     * @return Console output of the evaluation
+     */
+    public synchronized String grade(File directory) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        PrintStream console = System.out;
+        Thread current = Thread.currentThread();
+        ClassLoader context = current.getContextClassLoader();
+        try (PrintStream capture = printer(output)) {
+            System.setOut(capture);
+            DSL.resetComments();
+            Constraints check = null;
+            try {
+                ClassLoader loader = submissionLoader(directory);
+                current.setContextClassLoader(loader);
+                Evaluator.prepare(directory);
+                check = (Constraints)loader.loadClass("Checks").getDeclaredConstructor().newInstance();
+                Evaluator.evaluate(check);
+            } catch (Evaluator.Abort ex) {
+                // Evaluation has already been graded by abortOn()
+            } catch (SourceCompiler.CompilationError ex) {
+                System.out.println(ex.getMessage());
+            } catch (IOException ex) {
+                System.out.println("Could not evaluate " + directory + ": " + ex);
+            } catch (Exception | LinkageError ex) {
+                DSL.comment("Severe error: " + ex);
+            }
+            System.out.println(GRADE + (check == null ? 0 : check.getPoints()));
+            System.out.println(COMMENTS + DSL.ja);
+        } catch (UnsupportedEncodingException ex) {
+            throw new IllegalStateException(ex);
+        } finally {
+            System.setOut(console);
+            current.setContextClassLoader(context);
+        }
+        return new String(output.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Compiles a submission and creates its class loader.
+     * Classes of shared instructor files are loaded by the (shared) solution class loader
+     * of the assignment, all other classes by a new class loader for this submission.
+     */
+    private ClassLoader submissionLoader(File directory) throws SourceCompiler.CompilationError, IOException {
+        Map<String, byte[]> classes = this.compiler.compile(directory);
+        String assignment = this.compiler.assignment(directory);
+        ClassLoader solution = this.solutions.get(assignment);
+        Map<String, byte[]> shared = this.compiler.sharedClasses(assignment);
+        if (solution == null) {
+            solution = new MemoryClassLoader(shared, GradingServer.class.getClassLoader());
+            this.solutions.put(assignment, solution);
+        }
+        Map<String, byte[]> own = new HashMap<>(classes);
+        own.keySet().removeAll(shared.keySet());
+        return new MemoryClassLoader(own, solution);
+    }
+
+    /**
+     * Processes grading requests (one submission directory per line) until the input ends.
+     * @param in Requests
+     * @param out Responses
+     */
+    public void serve(BufferedReader in, PrintStream out) throws IOException {
+        for (String request = in.readLine(); request != null; request = in.readLine()) {
+            if (request.trim().isEmpty()) continue;
+            byte[] response = grade(new File(request.trim()).getAbsoluteFile()).getBytes(StandardCharsets.UTF_8);
+            out.println(response.length);
+            out.write(response, 0, response.length);
+            out.flush();
+        }
+    }
+
+    /**
+     * Processes grading requests of local connections.
+     * @param port Port to listen on (loopback interface only)
+     */
+    public void serve(int port) throws IOException {
+        try (ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+            while (true) {
+                try (Socket client = server.accept()) {
+                    serve(reader(client.getInputStream()), printer(client.getOutputStream()));
+                } catch (IOException ex) {
+                    System.err.println("Connection failed: " + ex);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the next response of a grading server (see serve()).
+     * @param in Responses
+     * @return Console output of the evaluation (including the trailer)
+     * @throws IOException if the responses end or a response is incomplete
+     */
+    public static String readResponse(InputStream in) throws IOException {
+        StringBuilder header = new StringBuilder();
+        for (int b = in.read(); b != '\n'; b = in.read()) {
+            if (b < 0) throw new EOFException("Grading process terminated");
+            header.append((char)b);
+        }
+        byte[] response;
+        try {
+            response = new byte[Integer.parseInt(header.toString().trim())];
+        } catch (NumberFormatException | NegativeArraySizeException ex) {
+            throw new IOException("Invalid response header: " + header);
+        }
+        new DataInputStream(in).readFully(response);
+        return new String(response, StandardCharsets.UTF_8);
+    }
+
+    private static BufferedReader reader(InputStream in) {
+        return new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+    }
+
+    private static PrintStream printer(OutputStream out) throws UnsupportedEncodingException {
+        return new PrintStream(out, true, "UTF-8");
+    }
+
+    /**
+     * Starts the grading server.
+     * @param args optional port (requests are read from stdin if omitted)
+     */
+    public static void main(String[] args) {
+        try {
+            GradingServer server = new GradingServer();
+            if (args.length > 0) server.serve(Integer.parseInt(args[0]));
+            else server.serve(reader(System.in), printer(System.out));
+        } catch (Exception ex) {
+            System.err.println("Grading server failed: " + ex);
+            System.exit(1);
+        }
+    }
+}
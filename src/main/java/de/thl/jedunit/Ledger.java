@@ -0,0 +1,166 @@
+package de.thl.jedunit;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.function.Consumer;
+
+/**
+ * Records the effects of a test (comments, results, points, console output)
+ * instead of applying them immediately.
+ * The recorded effects are replayed later in the order they were recorded.
+ * This way tests can be executed on worker threads, while the evaluation
+ * is reported exactly like a sequential evaluation.
+ * Effects on an evaluator (like points) can be replayed on another evaluator,
+ * so ledgers can be kept across evaluations (see LedgerCache).
+ *
+ * @author Nane Kratzke
+ */
+class Ledger {
+
+    /**
+     * Ledger the current thread records into (if any).
+     */
+    private static final ThreadLocal<Ledger> CURRENT = new ThreadLocal<>();
+
+    /**
+     * Recorded effect and the evaluator it has been recorded for (null if it does not affect an evaluator).
+     */
+    private static class Effect {
+        final Evaluator target;
+        final Consumer<Evaluator> action;
+
+        Effect(Evaluator target, Consumer<Evaluator> action) {
+            this.target = target;
+            this.action = action;
+        }
+    }
+
+    private final List<Effect> effects = new LinkedList<>();
+
+    private boolean closed = false;
+
+    private Exception failure = null;
+
+    /**
+     * Applies an effect immediately.
+     * If the current thread records into a ledger, the effect is recorded instead.
+     * @param effect Effect to apply
+     */
+    static void run(Runnable effect) {
+        run(null, check -> effect.run());
+    }
+
+    /**
+     * Applies an effect on an evaluator immediately.
+     * If the current thread records into a ledger, the effect is recorded instead.
+     * @param target Evaluator
+     * @param effect Effect to apply (on the evaluator passed to it)
+     */
+    static void run(Evaluator target, Consumer<Evaluator> effect) {
+        Ledger ledger = CURRENT.get();
+        if (ledger == null) effect.accept(target);
+        else ledger.add(new Effect(target, effect));
+    }
+
+    /**
+     * Executes a task on the current thread and records all its effects.
+     * An exception thrown by the task is stored and rethrown by replay().
+     * @param task Task to execute
+     * @return Ledger with the recorded effects
+     */
+    static Ledger record(Callable<?> task) {
+        Ledger ledger = new Ledger();
+        ledger.execute(task);
+        return ledger;
+    }
+
+    /**
+     * Executes a task on the current thread and records all its effects in this ledger.
+     * An exception thrown by the task is stored and rethrown by replay().
+     * @param task Task to execute
+     */
+    void execute(Callable<?> task) {
+        Ledger previous = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            task.call();
+        } catch (Exception ex) {
+            this.failure = ex;
+        } finally {
+            CURRENT.set(previous);
+        }
+    }
+
+    /**
+     * Makes the console record the output of threads recording into a ledger
+     * (if this is not already the case).
+     */
+    static void recordConsole() {
+        if (!(System.out instanceof Console)) System.setOut(new Console(System.out));
+    }
+
+    /**
+     * Console that records the output of threads recording into a ledger.
+     * Output of all other threads is written to the console directly.
+     */
+    private static class Console extends PrintStream {
+        Console(PrintStream console) {
+            super(new OutputStream() {
+                @Override
+                public void write(int b) {
+                    run(() -> console.write(b));
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                    byte[] output = Arrays.copyOfRange(b, off, off + len);
+                    run(() -> console.write(output, 0, output.length));
+                }
+
+                @Override
+                public void flush() {
+                    run(() -> console.flush());
+                }
+            }, true);
+        }
+    }
+
+    private synchronized void add(Effect effect) {
+        if (!this.closed) this.effects.add(effect);
+    }
+
+    /**
+     * Closes the ledger. Effects recorded afterwards are discarded.
+     */
+    synchronized void close() {
+        this.closed = true;
+    }
+
+    /**
+     * Replays all recorded effects (on the current thread) and closes the ledger.
+     * @throws Exception the exception thrown by the recorded task (if any)
+     */
+    void replay() throws Exception {
+        replay(null);
+    }
+
+    /**
+     * Replays all recorded effects (on the current thread) and closes the ledger.
+     * A ledger can be replayed several times.
+     * @param target Evaluator the effects are applied to (null for the evaluators they have been recorded for)
+     * @throws Exception the exception thrown by the recorded task (if any)
+     */
+    void replay(Evaluator target) throws Exception {
+        List<Effect> recorded;
+        synchronized (this) {
+            this.closed = true;
+            recorded = new LinkedList<>(this.effects);
+        }
+        for (Effect effect : recorded) run(target != null && effect.target != null ? target : effect.target, effect.action);
+        if (this.failure != null) throw this.failure;
+    }
+}
@@ -0,0 +1,199 @@
+package de.thl.jedunit;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.github.javaparser.ast.CompilationUnit;
+import com.github.javaparser.ast.Node;
+import com.github.javaparser.ast.body.BodyDeclaration;
+import com.github.javaparser.ast.body.ClassOrInterfaceDeclaration;
+import com.github.javaparser.ast.body.MethodDeclaration;
+import com.github.javaparser.ast.body.TypeDeclaration;
+import com.github.javaparser.printer.PrettyPrinterConfiguration;
+
+/**
+ * Keeps the ledgers of inspections and tests across evaluations of the same directory (see Watcher).
+ *
+ * An inspection or test is only executed again if something it depends on has changed.
+ * Otherwise its ledger (recorded by the previous execution) is replayed on the current checks object.
+ * An inspection or test depends on
+ * - its own source code in Checks.java (without comments),
+ * - all parts of Checks.java that are not inspections or tests (fields, configure(), helper methods),
+ * - all other Java files of the directory (without comments),
+ * - and all config options.
+ * So editing a test in Checks.java only reruns this test, and editing a submission reruns
+ * all inspections and tests (but not for changes of comments that do not move any code).
+ *
+ * Like parallel tests (see Config.PARALLEL_TESTS), inspections and tests must report
+ * their results via comments, checks, and penalties. Tests are not rerun just to get
+ * new random test data. Parallel tests are executed every time.
+ *
+ * @author Nane Kratzke
+ */
+class LedgerCache {
+
+    private static final PrettyPrinterConfiguration NO_COMMENTS = new PrettyPrinterConfiguration().setPrintComments(false);
+
+    /**
+     * Ledgers of the current evaluation by key.
+     */
+    private Map<String, Ledger> current = new HashMap<>();
+
+    /**
+     * Ledgers of the previous evaluation by key.
+     */
+    private Map<String, Ledger> previous = new HashMap<>();
+
+    /**
+     * Hash of everything (but the method itself) all inspections and tests of the current evaluation depend on.
+     */
+    private String context = null;
+
+    private int replayed = 0;
+
+    private int executed = 0;
+
+    /**
+     * Starts a new evaluation. Ledgers not needed by the last evaluation are discarded.
+     */
+    void start() {
+        this.previous = this.current;
+        this.current = new HashMap<>();
+        this.context = null;
+        this.replayed = 0;
+        this.executed = 0;
+    }
+
+    /**
+     * Number of inspections and tests replayed in the current evaluation.
+     */
+    int getReplayed() { return this.replayed; }
+
+    /**
+     * Number of inspections and tests executed in the current evaluation.
+     */
+    int getExecuted() { return this.executed; }
+
+    /**
+     * Executes an inspection or test and records its ledger
+     * (or replays the ledger of an earlier execution).
+     * @param check Checks object
+     * @param method Inspection or test method
+     * @param execution Executes the method
+     */
+    void run(Evaluator check, Method method, Evaluator.Execution execution) throws Exception {
+        String key = key(method);
+        Ledger ledger = key == null ? null : this.current.getOrDefault(key, this.previous.get(key));
+        if (ledger != null) {
+            this.replayed++;
+        } else {
+            this.executed++;
+            Ledger.recordConsole();
+            ledger = new Ledger();
+            try {
+                ledger.execute(() -> {
+                    execution.run();
+                    return null;
+                });
+            } catch (Error err) {
+                ledger.replay(check);
+                throw err;
+            }
+        }
+        if (key != null) this.current.put(key, ledger);
+        ledger.replay(check);
+    }
+
+    /**
+     * Hash of everything an inspection or test depends on (null if it can not be determined).
+     */
+    private String key(Method method) {
+        try {
+            SyntaxTree checks = SyntaxTree.of("Checks.java");
+            if (checks == null) return null;
+            CompilationUnit cu = checks.getCompilationUnit();
+            if (this.context == null) this.context = context(cu);
+            MessageDigest sha = sha();
+            update(sha, this.context);
+            update(sha, method.getDeclaringClass().getName() + "." + method.getName());
+            for (TypeDeclaration<?> type : cu.getTypes()) {
+                if (!type.getNameAsString().equals(method.getDeclaringClass().getName())) continue;
+                for (MethodDeclaration m : type.getMethodsByName(method.getName())) {
+                    if (m.getParameters().size() == method.getParameterCount()) update(sha, m.toString(NO_COMMENTS));
+                }
+            }
+            return hex(sha.digest());
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Hash of everything all inspections and tests depend on (but their own source code).
+     */
+    private static String context(CompilationUnit cu) throws IOException {
+        MessageDigest sha = sha();
+        cu.getPackageDeclaration().ifPresent(p -> update(sha, p.toString(NO_COMMENTS)));
+        cu.getImports().forEach(i -> update(sha, i.toString(NO_COMMENTS)));
+        for (TypeDeclaration<?> type : cu.getTypes()) {
+            if (!(type instanceof ClassOrInterfaceDeclaration)) {
+                update(sha, type.toString(NO_COMMENTS));
+                continue;
+            }
+            ClassOrInterfaceDeclaration clazz = (ClassOrInterfaceDeclaration)type;
+            update(sha, clazz.getModifiers() + " " + clazz.getNameAsString());
+            for (Node n : clazz.getAnnotations()) update(sha, n.toString(NO_COMMENTS));
+            for (Node n : clazz.getTypeParameters()) update(sha, n.toString(NO_COMMENTS));
+            for (Node n : clazz.getExtendedTypes()) update(sha, "extends " + n.toString(NO_COMMENTS));
+            for (Node n : clazz.getImplementedTypes()) update(sha, "implements " + n.toString(NO_COMMENTS));
+            for (BodyDeclaration<?> member : clazz.getMembers()) {
+                boolean step = member.isAnnotationPresent(Test.class) || member.isAnnotationPresent(Inspection.class);
+                if (!step || !(member instanceof MethodDeclaration)) update(sha, member.toString(NO_COMMENTS));
+            }
+        }
+        File[] sources = DSL.file(".").listFiles((dir, name) -> name.endsWith(".java") && !name.equals("Checks.java"));
+        if (sources != null) {
+            Arrays.sort(sources);
+            for (File source : sources) {
+                update(sha, source.getName());
+                update(sha, ResultCache.uncommented(new String(Files.readAllBytes(source.toPath()), StandardCharsets.UTF_8)));
+            }
+        }
+        for (Field option : Config.class.getFields()) {
+            try {
+                update(sha, option.getName() + "=" + ResultCache.value(option.get(null)));
+            } catch (IllegalAccessException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+        return hex(sha.digest());
+    }
+
+    private static MessageDigest sha() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static void update(MessageDigest sha, String value) {
+        sha.update(value.getBytes(StandardCharsets.UTF_8));
+        sha.update((byte)0);
+    }
+
+    private static String hex(byte[] digest) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest) hex.append(String.format("%02x", b));
+        return hex.toString();
+    }
+}
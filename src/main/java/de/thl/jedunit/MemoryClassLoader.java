@@ -0,0 +1,57 @@
+package de.thl.jedunit;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Class loader that defines classes from bytecode held in memory
+ * (e.g. compiled by a SourceCompiler).
+ * Classes held in memory take precedence over classes of the parent class loader
+ * (like stale class files of a submission on the class path).
+ *
+ * @author Nane Kratzke
+ */
+class MemoryClassLoader extends ClassLoader {
+
+    private final Map<String, byte[]> classes;
+
+    /**
+     * Creates a class loader for a set of compiled classes.
+     * @param classes Bytecode by binary class name
+     * @param parent Parent class loader
+     */
+    MemoryClassLoader(Map<String, byte[]> classes, ClassLoader parent) {
+        super(parent);
+        this.classes = new HashMap<>(classes);
+    }
+
+    @Override
+    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+        if (!this.classes.containsKey(name)) return super.loadClass(name, resolve);
+        synchronized (getClassLoadingLock(name)) {
+            Class<?> c = findLoadedClass(name);
+            if (c == null) c = findClass(name);
+            if (resolve) resolveClass(c);
+            return c;
+        }
+    }
+
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+        byte[] bytecode = this.classes.get(name);
+        if (bytecode == null) throw new ClassNotFoundException(name);
+        return defineClass(name, bytecode, 0, bytecode.length);
+    }
+
+    @Override
+    public InputStream getResourceAsStream(String name) {
+        if (name.endsWith(".class")) {
+            byte[] bytecode = this.classes.get(name.substring(0, name.length() - ".class".length()).replace('/', '.'));
+            if (bytecode != null) return new ByteArrayInputStream(bytecode);
+        }
+        InputStream inherited = getParent() == null ? null : getParent().getResourceAsStream(name);
+        return inherited != null ? inherited : super.getResourceAsStream(name);
+    }
+}
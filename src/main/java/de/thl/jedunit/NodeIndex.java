@@ -0,0 +1,363 @@
+package de.thl.jedunit;
+
+import java.util.AbstractList;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.github.javaparser.ast.DataKey;
+import com.github.javaparser.ast.Node;
+
+/**
+ * Index of all nodes of an AST by their type (in document order).
+ *
+ * Selecting nodes by type (see Selected.select()) walks the whole (sub)tree
+ * for every query otherwise. The index is built once per AST
+ * (on the first query) and is attached to its root (usually the compilation unit),
+ * so it is shared by all queries on a cached AST.
+ * Lookups for a type include all subtypes (like CallableDeclaration for MethodDeclaration
+ * and ConstructorDeclaration). They are merged once per type and kept.
+ *
+ * Nodes are numbered in pre-order. Descendants of a node are numbered consecutively
+ * after the node, so descendant queries are range lookups (binary search)
+ * instead of tree walks. Sets of nodes of an AST can be represented as
+ * bit sets of their numbers (see Selected). Queries for sets of nodes skip nodes
+ * within the intervals of other nodes of the set, so nested sets
+ * (like all classes and their inner classes) do not visit subtrees more than once.
+ * The first child of a node is numbered directly after the node, and the next sibling
+ * of a node directly after its last descendant, so childs and siblings are
+ * found by jumps instead of searching subtrees.
+ * Source code ranges are not used for that, because comments and some types
+ * (like int in int a, b;) are located outside of the source code ranges of their parents.
+ *
+ * The indexed AST must not be modified (like all cached ASTs, see SyntaxTree).
+ * If nodes are added anyway, the index is built again for them.
+ *
+ * @author Nane Kratzke
+ */
+class NodeIndex {
+
+    private static final DataKey<NodeIndex> KEY = new DataKey<NodeIndex>() { };
+
+    /**
+     * All nodes in pre-order.
+     */
+    private final List<Node> nodes = new ArrayList<>();
+
+    /**
+     * Pre-order number of each node.
+     */
+    private final Map<Node, Integer> numbers = new IdentityHashMap<>();
+
+    /**
+     * Pre-order number of the last descendant of each node (by pre-order number).
+     */
+    private final int[] last;
+
+    /**
+     * Pre-order number of the parent of each node (by pre-order number, -1 for the root).
+     */
+    private final int[] parents;
+
+    /**
+     * Pre-order number of the previous sibling of each node (by pre-order number, -1 for first childs).
+     */
+    private final int[] previous;
+
+    /**
+     * Pre-order numbers of nodes by their exact class.
+     */
+    private final Map<Class<?>, int[]> classes = new HashMap<>();
+
+    /**
+     * Pre-order numbers of nodes by queried types (including subtypes).
+     */
+    private final Map<Class<?>, int[]> types = new ConcurrentHashMap<>();
+
+    private NodeIndex(Node root) {
+        Map<Class<?>, List<Integer>> byClass = new HashMap<>();
+        root.walk(Node.TreeTraversal.PREORDER, node -> {
+            byClass.computeIfAbsent(node.getClass(), c -> new ArrayList<>()).add(this.nodes.size());
+            this.numbers.put(node, this.nodes.size());
+            this.nodes.add(node);
+        });
+        this.last = new int[this.nodes.size()];
+        this.parents = new int[this.nodes.size()];
+        this.previous = new int[this.nodes.size()];
+        Arrays.fill(this.parents, -1);
+        Arrays.fill(this.previous, -1);
+        for (int i = this.nodes.size() - 1; i >= 0; i--) {
+            Node node = this.nodes.get(i);
+            this.last[i] = i;
+            int previous = -1;
+            for (Node child : node.getChildNodes()) {
+                Integer c = this.numbers.get(child);
+                if (c == null || c <= i) continue;
+                this.last[i] = Math.max(this.last[i], this.last[c]);
+                this.parents[c] = i;
+                this.previous[c] = previous;
+                previous = c;
+            }
+        }
+        byClass.forEach((c, numbers) -> this.classes.put(c, numbers.stream().mapToInt(Integer::intValue).toArray()));
+    }
+
+    /**
+     * Returns the index of the AST a node belongs to (builds it if necessary).
+     * @param node Node
+     * @return Index (contains the node)
+     */
+    static NodeIndex of(Node node) {
+        Node root = node.findRootNode();
+        synchronized (root) {
+            if (!root.containsData(KEY) || !root.getData(KEY).contains(node)) root.setData(KEY, new NodeIndex(root));
+            return root.getData(KEY);
+        }
+    }
+
+    /**
+     * Checks whether a node has been indexed.
+     */
+    boolean contains(Node node) {
+        return this.numbers.containsKey(node);
+    }
+
+    /**
+     * Returns the pre-order number of an indexed node.
+     */
+    int number(Node node) {
+        return this.numbers.get(node);
+    }
+
+    /**
+     * Returns the node with a pre-order number.
+     */
+    Node node(int number) {
+        return this.nodes.get(number);
+    }
+
+    /**
+     * Returns the pre-order number of the parent of a node (-1 for the root).
+     */
+    int parent(int number) {
+        return this.parents[number];
+    }
+
+    /**
+     * Returns the pre-order numbers of all nodes of a type (including subtypes) in document order.
+     */
+    private int[] numbers(Class<?> type) {
+        return this.types.computeIfAbsent(type, t -> this.classes.entrySet().stream()
+            .filter(c -> t.isAssignableFrom(c.getKey()))
+            .flatMapToInt(c -> Arrays.stream(c.getValue()))
+            .sorted()
+            .toArray()
+        );
+    }
+
+    /**
+     * Returns all descendants of an indexed node that are of a type (in document order).
+     * @param node Indexed node (see contains())
+     * @param type Type of descendants
+     * @return Descendants (excluding the node itself)
+     */
+    <T extends Node> List<T> descendants(Node node, Class<T> type) {
+        int n = this.numbers.get(node);
+        int[] numbers = numbers(type);
+        int from = lowerBound(numbers, n + 1);
+        int to = lowerBound(numbers, this.last[n] + 1);
+        return new AbstractList<T>() {
+            @Override
+            public T get(int i) { return type.cast(nodes.get(numbers[from + i])); }
+
+            @Override
+            public int size() { return to - from; }
+        };
+    }
+
+    /**
+     * Returns all descendants of a node that are of a type (in document order).
+     * @param node Node
+     * @param type Type of descendants
+     * @return Descendants (excluding the node itself)
+     */
+    static <T extends Node> List<T> descendantsOf(Node node, Class<T> type) {
+        return of(node).descendants(node, type);
+    }
+
+    /**
+     * Lazily computed set of pre-order numbers (in ascending order).
+     */
+    interface Cursor {
+
+        /**
+         * Returns the next pre-order number (-1 if there are no more numbers).
+         */
+        int next();
+
+        /**
+         * Returns a cursor over a set of pre-order numbers.
+         */
+        static Cursor of(BitSet numbers) {
+            return new Cursor() {
+                private int current = numbers.nextSetBit(0);
+
+                @Override
+                public int next() {
+                    int n = this.current;
+                    if (n >= 0) this.current = numbers.nextSetBit(n + 1);
+                    return n;
+                }
+            };
+        }
+    }
+
+    /**
+     * Returns the pre-order numbers of all descendants of a set of nodes that are of a type (lazily).
+     * Nodes that are descendants of other nodes of the set are skipped (their descendants
+     * are already included), so every indexed node is visited at most once.
+     * @param numbers Pre-order numbers of the nodes
+     * @param type Type of descendants
+     * @return Pre-order numbers of descendants
+     */
+    Cursor descendants(Cursor numbers, Class<?> type) {
+        int[] candidates = numbers(type);
+        return new Cursor() {
+            private int i = 0;
+            private int end = -1;
+
+            @Override
+            public int next() {
+                while (true) {
+                    if (this.i < candidates.length && candidates[this.i] <= this.end) return candidates[this.i++];
+                    int n = numbers.next();
+                    while (n >= 0 && n <= this.end) n = numbers.next();
+                    if (n < 0) return -1;
+                    this.end = last[n];
+                    this.i = Math.max(this.i, lowerBound(candidates, n + 1));
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns the pre-order numbers of all direct childs of a set of nodes that are of a type (lazily).
+     * Childs are found by jumping from child to child (the next sibling of a child
+     * is numbered after its last descendant), so only direct childs are visited.
+     * Childs of nested nodes are merged in document order.
+     * @param numbers Pre-order numbers of the nodes
+     * @param type Type of childs
+     * @return Pre-order numbers of childs
+     */
+    Cursor children(Cursor numbers, Class<?> type) {
+        return new Cursor() {
+            /**
+             * Nodes whose childs are being visited (innermost on top)
+             * with the pre-order number of their next child.
+             */
+            private final Deque<int[]> parents = new ArrayDeque<>();
+            private int pending = numbers.next();
+
+            @Override
+            public int next() {
+                while (true) {
+                    while (!this.parents.isEmpty() && this.parents.peek()[1] > last[this.parents.peek()[0]]) this.parents.pop();
+                    if (this.pending >= 0 && (this.parents.isEmpty() || this.pending < this.parents.peek()[1])) {
+                        // Childs of a nested node precede the next child of the enclosing node
+                        this.parents.push(new int[] { this.pending, this.pending + 1 });
+                        this.pending = numbers.next();
+                        continue;
+                    }
+                    if (this.parents.isEmpty()) return -1;
+                    int child = this.parents.peek()[1];
+                    this.parents.peek()[1] = last[child] + 1;
+                    if (type.isInstance(nodes.get(child))) return child;
+                }
+            }
+        };
+    }
+
+    /**
+     * Adds the pre-order numbers of the parents of a set of nodes that are of a type to a set.
+     * @param numbers Pre-order numbers of the nodes
+     * @param type Type of parents
+     * @param into Set of pre-order numbers
+     */
+    void parents(BitSet numbers, Class<?> type, BitSet into) {
+        for (int n = numbers.nextSetBit(0); n >= 0; n = numbers.nextSetBit(n + 1)) {
+            int p = this.parents[n];
+            if (p >= 0 && type.isInstance(this.nodes.get(p))) into.set(p);
+        }
+    }
+
+    /**
+     * Adds the pre-order numbers of the siblings of a set of nodes that are of a type to a set.
+     * Nodes of the set are siblings of other nodes of the set with the same parent.
+     * Childs of every parent are visited only once.
+     * @param numbers Pre-order numbers of the nodes
+     * @param type Type of siblings
+     * @param into Set of pre-order numbers
+     */
+    void siblings(BitSet numbers, Class<?> type, BitSet into) {
+        BitSet visited = new BitSet();
+        for (int n = numbers.nextSetBit(0); n >= 0; n = numbers.nextSetBit(n + 1)) {
+            int p = this.parents[n];
+            if (p < 0 || visited.get(p)) continue;
+            visited.set(p);
+            int selected = 0;
+            for (int c = p + 1; c <= this.last[p]; c = this.last[c] + 1) if (numbers.get(c)) selected++;
+            for (int c = p + 1; c <= this.last[p]; c = this.last[c] + 1) {
+                if ((c != n || selected > 1) && type.isInstance(this.nodes.get(c))) into.set(c);
+            }
+        }
+    }
+
+    /**
+     * Adds the pre-order numbers of the next (following == true) or previous siblings
+     * of a set of nodes to a set, if they are of a type.
+     * @param numbers Pre-order numbers of the nodes
+     * @param following Next (true) or previous (false) siblings
+     * @param type Type of siblings
+     * @param into Set of pre-order numbers
+     */
+    void adjacent(BitSet numbers, boolean following, Class<?> type, BitSet into) {
+        for (int n = numbers.nextSetBit(0); n >= 0; n = numbers.nextSetBit(n + 1)) {
+            int p = this.parents[n];
+            int s = following ? this.last[n] + 1 : this.previous[n];
+            if (p >= 0 && s >= 0 && s <= this.last[p] && type.isInstance(this.nodes.get(s))) into.set(s);
+        }
+    }
+
+    /**
+     * Adds the pre-order numbers of all ancestors of a set of nodes that are of a type to a set.
+     * Paths to the root are followed until they reach an ancestor that has already been visited,
+     * so every indexed node is visited at most once.
+     * @param numbers Pre-order numbers of the nodes
+     * @param type Type of ancestors
+     * @param into Set of pre-order numbers
+     */
+    void ancestors(BitSet numbers, Class<?> type, BitSet into) {
+        BitSet visited = new BitSet();
+        for (int n = numbers.nextSetBit(0); n >= 0; n = numbers.nextSetBit(n + 1)) {
+            for (int a = this.parents[n]; a >= 0 && !visited.get(a); a = this.parents[a]) {
+                visited.set(a);
+                if (type.isInstance(this.nodes.get(a))) into.set(a);
+            }
+        }
+    }
+
+    /**
+     * Returns the position of the first element that is greater or equal to a value.
+     */
+    private static int lowerBound(int[] sorted, int value) {
+        int i = Arrays.binarySearch(sorted, value);
+        return i >= 0 ? i : -i - 1;
+    }
+}
@@ -0,0 +1,262 @@
+package de.thl.jedunit;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import com.github.javaparser.ast.Node;
+
+/**
+ * Rule that consists of patterns. Each pattern corresponds to a selection like
+ *
+ *   ast.select(TYPE).filter(condition).annotate(message)
+ *
+ * or to a selection within scopes like
+ *
+ *   ast.select(SCOPE).filter(scopeCondition).select(TYPE, condition).annotate(message)
+ *
+ * A rule is violated if any of its patterns matches.
+ * Matches are annotated pattern by pattern (in the order the patterns have been added),
+ * exactly like the corresponding selections would annotate them.
+ *
+ * Example:
+ *
+ *   Config.RULES.add(new PatternRule(25, "No recursion")
+ *       .match(MethodCallExpr.class, call -> call.getNameAsString().equals("countChars"), call -> "Recursion not allowed")
+ *       .suspects(scan -> scan.contains("countChars"))
+ *   );
+ *
+ * @author Nane Kratzke
+ */
+public class PatternRule implements Rule {
+
+    /**
+     * Pattern of nodes that indicate a violation of a rule.
+     */
+    private static class Pattern<T extends Node> {
+        final Class<T> type;
+        final Predicate<T> condition;
+        final Function<T, String> message;
+        final Class<? extends Node> scope;
+        final Predicate<Node> scopeCondition;
+        final boolean distinct;
+
+        @SuppressWarnings("unchecked")
+        <S extends Node> Pattern(Class<T> type, Predicate<T> condition, Function<T, String> message, Class<S> scope, Predicate<S> scopeCondition, boolean distinct) {
+            this.type = type;
+            this.condition = condition;
+            this.message = message;
+            this.scope = scope;
+            this.scopeCondition = scope == null ? null : n -> scopeCondition.test((S)n);
+            this.distinct = distinct;
+        }
+
+        boolean matches(Node node) {
+            return this.type.isInstance(node) && this.condition.test(this.type.cast(node));
+        }
+
+        boolean isScope(Node node) {
+            return this.scope.isInstance(node) && this.scopeCondition.test(node);
+        }
+
+        String message(Node node) {
+            return this.message.apply(this.type.cast(node));
+        }
+    }
+
+    /**
+     * Match of a pattern.
+     */
+    private static class Hit {
+        final Node node;
+
+        /**
+         * Pre-order position of the enclosing scope (0 for patterns without scopes).
+         */
+        final int scope;
+
+        Hit(Node node, int scope) {
+            this.node = node;
+            this.scope = scope;
+        }
+    }
+
+    private final String remark;
+
+    private final int penalty;
+
+    private final List<Pattern<?>> patterns = new LinkedList<>();
+
+    private Predicate<TokenScan> suspects = null;
+
+    /**
+     * Creates a rule.
+     * @param penalty Percentage points deducted if the rule is violated
+     * @param remark Remark reported if the rule is violated
+     */
+    public PatternRule(int penalty, String remark) {
+        this.penalty = penalty;
+        this.remark = remark;
+    }
+
+    /**
+     * Adds a pattern: all nodes of a type violate the rule.
+     * @param type Node type
+     * @param message Annotation for every match
+     * @return Self reference (for method chaining)
+     */
+    public <T extends Node> PatternRule match(Class<T> type, String message) {
+        return match(type, n -> true, n -> message);
+    }
+
+    /**
+     * Adds a pattern: all nodes of a type that fulfill a condition violate the rule.
+     * @param type Node type
+     * @param condition Condition
+     * @param message Annotation for every match
+     * @return Self reference (for method chaining)
+     */
+    public <T extends Node> PatternRule match(Class<T> type, Predicate<T> condition, Function<T, String> message) {
+        this.patterns.add(new Pattern<T>(type, condition, message, null, null, false));
+        return this;
+    }
+
+    /**
+     * Adds a pattern: all nodes of a type that fulfill a condition and are
+     * (recursive) childs of a scope violate the rule.
+     * A node is matched (and annotated) once per enclosing scope (e.g. a statement within two nested loops matches twice),
+     * unless distinct matches are requested.
+     * @param scope Scope type
+     * @param scopeCondition Condition for scopes
+     * @param type Node type
+     * @param condition Condition
+     * @param message Annotation for every match
+     * @param distinct Annotate every node only once
+     * @return Self reference (for method chaining)
+     */
+    public <S extends Node, T extends Node> PatternRule matchWithin(Class<S> scope, Predicate<S> scopeCondition, Class<T> type, Predicate<T> condition, Function<T, String> message, boolean distinct) {
+        this.patterns.add(new Pattern<T>(type, condition, message, scope, scopeCondition, distinct));
+        return this;
+    }
+
+    /**
+     * Sets the condition for suspect files (see Rule.isSuspect()).
+     * The condition must hold for every file with a match of any pattern.
+     * Without a condition all files are suspect.
+     * @param suspects Condition on the pre-scan of a file
+     * @return Self reference (for method chaining)
+     */
+    public PatternRule suspects(Predicate<TokenScan> suspects) {
+        this.suspects = suspects;
+        return this;
+    }
+
+    @Override
+    public boolean isSuspect(TokenScan scan) {
+        return this.suspects == null || this.suspects.test(scan);
+    }
+
+    @Override
+    public String getRemark() {
+        return this.remark;
+    }
+
+    @Override
+    public int getPenalty() {
+        return this.penalty;
+    }
+
+    @Override
+    public Collection<Class<? extends Node>> getNodeTypes() {
+        Set<Class<? extends Node>> types = new LinkedHashSet<>();
+        for (Pattern<?> pattern : this.patterns) {
+            types.add(pattern.type);
+            if (pattern.scope != null) types.add(pattern.scope);
+        }
+        return types;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("PatternRule(%d, %s)", this.penalty, this.remark);
+    }
+
+    @Override
+    public Visitor start() {
+        return new Visitor() {
+
+            private final List<List<Hit>> hits = new ArrayList<>();
+
+            /**
+             * Scopes of each pattern with their pre-order position.
+             */
+            private final List<Map<Node, Integer>> scopes = new ArrayList<>();
+
+            /**
+             * Index of the first pattern that could not be evaluated.
+             */
+            private int failed = patterns.size();
+
+            private Exception failure = null;
+
+            {
+                for (int i = 0; i < patterns.size(); i++) {
+                    this.hits.add(new LinkedList<>());
+                    this.scopes.add(new IdentityHashMap<>());
+                }
+            }
+
+            @Override
+            public void visit(Node node, int position) {
+                for (int i = 0; i < this.failed; i++) {
+                    Pattern<?> pattern = patterns.get(i);
+                    try {
+                        if (pattern.scope != null && pattern.isScope(node)) this.scopes.get(i).put(node, position);
+                        if (!pattern.matches(node)) continue;
+                        if (pattern.scope == null) {
+                            this.hits.get(i).add(new Hit(node, 0));
+                            continue;
+                        }
+                        for (Optional<Node> a = node.getParentNode(); a.isPresent(); a = a.get().getParentNode()) {
+                            Integer scope = this.scopes.get(i).get(a.get());
+                            if (scope != null) this.hits.get(i).add(new Hit(node, scope));
+                        }
+                    } catch (Exception ex) {
+                        this.failed = i;
+                        this.failure = ex;
+                    }
+                }
+            }
+
+            @Override
+            public List<Violation> getViolations() throws Exception {
+                if (this.failure != null) throw this.failure;
+                List<Violation> violations = new LinkedList<>();
+                for (int i = 0; i < patterns.size(); i++) {
+                    Pattern<?> pattern = patterns.get(i);
+                    List<Hit> hits = this.hits.get(i);
+                    if (pattern.scope != null) hits.sort(Comparator.comparingInt(hit -> hit.scope));
+                    List<Node> nodes = hits.stream().map(hit -> hit.node).collect(Collectors.toList());
+                    if (pattern.distinct) {
+                        // Nodes are distinguished by identity (equal nodes may occur at different positions)
+                        Set<Node> annotated = Collections.newSetFromMap(new IdentityHashMap<>());
+                        nodes = nodes.stream().filter(annotated::add).collect(Collectors.toList());
+                    }
+                    for (Node node : nodes) violations.add(new Violation(node, pattern.message(node)));
+                }
+                return violations;
+            }
+        };
+    }
+}
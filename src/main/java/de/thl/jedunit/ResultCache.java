@@ -0,0 +1,214 @@
+package de.thl.jedunit;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Content-addressed cache of evaluation results (see Config.RESULT_CACHE).
+ *
+ * Results are keyed by a hash of everything an evaluation depends on:
+ * the evaluated files (without comments), the checkstyle log,
+ * the bytecode of the checks, the solution, and additional rules, and all config options
+ * (including the seed for random test data).
+ * Only evaluations with a fixed seed are cached (see Config.SEED), because
+ * evaluations with random test data must not be frozen at their first outcome.
+ * Every result is stored as a file in the cache directory.
+ * If the cache grows beyond its size limit, least recently used results are evicted.
+ *
+ * @author Nane Kratzke
+ */
+class ResultCache {
+
+    /**
+     * Cached result of an evaluation.
+     */
+    static class Result {
+        final String output;
+        final JSONArray comments;
+        final double percentage;
+
+        Result(String output, JSONArray comments, double percentage) {
+            this.output = output;
+            this.comments = comments;
+            this.percentage = percentage;
+        }
+    }
+
+    private static final String SUFFIX = ".result";
+
+    private final File directory;
+
+    private final long capacity;
+
+    /**
+     * Creates a result cache.
+     * @param directory Cache directory (created if it does not exist)
+     * @param capacity Maximum size in bytes
+     */
+    ResultCache(File directory, long capacity) {
+        this.directory = directory;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Looks up a result.
+     * @param key Key (see key())
+     * @return Cached result (or null if not cached)
+     */
+    Result lookup(String key) {
+        File entry = new File(this.directory, key + SUFFIX);
+        try {
+            JSONObject json = new JSONObject(new String(Files.readAllBytes(entry.toPath()), StandardCharsets.UTF_8));
+            entry.setLastModified(System.currentTimeMillis());
+            return new Result(json.getString("output"), json.getJSONArray("comments"), json.getDouble("percentage"));
+        } catch (Exception ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Stores a result and evicts least recently used results if the cache gets too large.
+     * @param key Key (see key())
+     * @param result Result
+     */
+    void store(String key, Result result) throws IOException {
+        this.directory.mkdirs();
+        JSONObject json = new JSONObject();
+        json.put("output", result.output);
+        json.put("comments", result.comments);
+        json.put("percentage", result.percentage);
+        File tmp = File.createTempFile(key, ".tmp", this.directory);
+        Files.write(tmp.toPath(), json.toString().getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp.toPath(), new File(this.directory, key + SUFFIX).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        evict();
+    }
+
+    private void evict() {
+        File[] entries = this.directory.listFiles((dir, name) -> name.endsWith(SUFFIX));
+        if (entries == null) return;
+        long size = Arrays.stream(entries).mapToLong(File::length).sum();
+        Arrays.sort(entries, Comparator.comparingLong(File::lastModified));
+        for (File entry : entries) {
+            if (size <= this.capacity) return;
+            size -= entry.length();
+            entry.delete();
+        }
+    }
+
+    /**
+     * Computes the key of an evaluation (must be called after the checks have been configured).
+     * @param check Checks object
+     * @return Hash of everything the evaluation depends on
+     * @throws IOException if evaluated files cannot be read
+     */
+    static String key(Evaluator check) throws IOException {
+        try {
+            MessageDigest sha = MessageDigest.getInstance("SHA-256");
+            for (String file : new TreeSet<>(Config.EVALUATED_FILES)) {
+                update(sha, file);
+                update(sha, uncommented(new String(Files.readAllBytes(DSL.file(file).toPath()), StandardCharsets.UTF_8)));
+            }
+            File log = DSL.file("checkstyle.log");
+            if (Config.CHECKSTYLE && log.exists()) sha.update(Files.readAllBytes(log.toPath()));
+            for (Class<?> c = check.getClass(); c != null && c != Object.class; c = c.getSuperclass()) {
+                update(sha, c.getName());
+                sha.update(bytecode(c.getClassLoader(), c.getName()));
+            }
+            sha.update(bytecode(check.getClass().getClassLoader(), "Solution"));
+            for (Rule rule : Config.RULES) {
+                sha.update(bytecode(rule.getClass().getClassLoader(), rule.getClass().getName()));
+            }
+            for (Field option : Config.class.getFields()) {
+                update(sha, option.getName() + "=" + value(option.get(null)));
+            }
+            StringBuilder hex = new StringBuilder();
+            for (byte b : sha.digest()) hex.append(String.format("%02x", b));
+            return hex.toString();
+        } catch (NoSuchAlgorithmException | IllegalAccessException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static void update(MessageDigest sha, String value) {
+        sha.update(value.getBytes(StandardCharsets.UTF_8));
+        sha.update((byte)0);
+    }
+
+    /**
+     * Order independent representation of an option value.
+     */
+    static String value(Object value) {
+        if (!(value instanceof Collection)) return String.valueOf(value);
+        return ((Collection<?>)value).stream().map(ResultCache::element).sorted().collect(Collectors.toList()).toString();
+    }
+
+    /**
+     * Stable representation of a collection element (rules have no stable string representation).
+     */
+    private static String element(Object value) {
+        if (!(value instanceof Rule)) return String.valueOf(value);
+        Rule rule = (Rule)value;
+        return rule.getClass().getName() + "(" + rule.getPenalty() + ", " + rule.getRemark() + ")";
+    }
+
+    private static byte[] bytecode(ClassLoader loader, String name) throws IOException {
+        if (loader == null) return new byte[0];
+        try (InputStream in = loader.getResourceAsStream(name.replace('.', '/') + ".class")) {
+            if (in == null) return new byte[0];
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) bytes.write(buffer, 0, n);
+            return bytes.toByteArray();
+        }
+    }
+
+    /**
+     * Removes all comments of Java source code.
+     * Line breaks of comments are kept, so that line numbers of the remaining code do not change
+     * (columns do, so replayed annotations may point to other columns of the same line).
+     * @param source Java source code
+     * @return Source code without comments
+     */
+    static String uncommented(String source) {
+        StringBuilder code = new StringBuilder(source.length());
+        int i = 0;
+        while (i < source.length()) {
+            char c = source.charAt(i);
+            char next = i + 1 < source.length() ? source.charAt(i + 1) : 0;
+            if (c == '/' && next == '/') {
+                while (i < source.length() && source.charAt(i) != '\n') i++;
+            } else if (c == '/' && next == '*') {
+                int end = source.indexOf("*/", i + 2);
+                end = end < 0 ? source.length() : end + 2;
+                for (; i < end; i++) if (source.charAt(i) == '\n') code.append('\n');
+            } else if (c == '"' || c == '\'') {
+                code.append(c);
+                for (i++; i < source.length() && source.charAt(i) != c && source.charAt(i) != '\n'; i++) {
+                    if (source.charAt(i) == '\\' && i + 1 < source.length()) code.append(source.charAt(i++));
+                    code.append(source.charAt(i));
+                }
+                if (i < source.length() && source.charAt(i) == c) code.append(source.charAt(i++));
+            } else {
+                code.append(c);
+                i++;
+            }
+        }
+        return code.toString();
+    }
+}
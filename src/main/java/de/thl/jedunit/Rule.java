@@ -0,0 +1,89 @@
+package de.thl.jedunit;
+
+import java.util.Collection;
+import java.util.List;
+
+import com.github.javaparser.ast.Node;
+
+/**
+ * Inspection rule that is evaluated on the AST of every evaluated file.
+ *
+ * Rules are registered via Config.RULES (or are built in, see Constraints.conventions()).
+ * All rules are evaluated together in a single traversal of each file.
+ * A rule only gets to see nodes of the types it declares (see getNodeTypes()).
+ * Files that are not suspect for any rule (see isSuspect()) are not traversed at all.
+ * If a rule is violated, all its violations are annotated and the penalty is deducted.
+ *
+ * Most rules can be expressed as PatternRule.
+ *
+ * @author Nane Kratzke
+ */
+public interface Rule {
+
+    /**
+     * Violation of a rule (annotated at the position of its node).
+     */
+    class Violation {
+        public final Node node;
+        public final String message;
+
+        public Violation(Node node, String message) {
+            this.node = node;
+            this.message = message;
+        }
+    }
+
+    /**
+     * Inspection state of a rule for a single file.
+     */
+    interface Visitor {
+
+        /**
+         * Visits a node of a declared type. Nodes are visited in pre-order.
+         * @param node Node
+         * @param position Pre-order position of the node within the AST
+         * @throws Exception if the node could not be inspected (the rule is not applied)
+         */
+        void visit(Node node, int position) throws Exception;
+
+        /**
+         * Returns all violations in the order they shall be annotated.
+         * @return Violations (empty if the rule is not violated)
+         * @throws Exception if the file could not be inspected (the rule is not applied)
+         */
+        List<Violation> getViolations() throws Exception;
+    }
+
+    /**
+     * Remark reported if the rule is violated.
+     */
+    String getRemark();
+
+    /**
+     * Percentage points deducted if the rule is violated.
+     */
+    int getPenalty();
+
+    /**
+     * Node types the rule needs to see (subtypes included).
+     */
+    Collection<Class<? extends Node>> getNodeTypes();
+
+    /**
+     * Decides on the base of a pre-scan whether a file could violate the rule.
+     * A rule only visits files that are suspect for it.
+     * Files that can not be parsed are reported for every rule.
+     * @param scan Pre-scan of the file
+     * @return false, if the file can not violate the rule
+     *         true, if the file could violate the rule or the rule needs the AST to decide (default)
+     */
+    default boolean isSuspect(TokenScan scan) {
+        return true;
+    }
+
+    /**
+     * Starts the inspection of a file.
+     * @return Visitor receiving all nodes of the declared types
+     */
+    Visitor start();
+}
@@ -0,0 +1,175 @@
+package de.thl.jedunit;
+
+import static de.thl.jedunit.DSL.comment;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import com.github.javaparser.ast.Node;
+
+/**
+ * Evaluates a set of rules in a single (pre-order) traversal of an AST.
+ *
+ * Evaluating rules one by one traverses the AST once per rule.
+ * This engine visits every node only once and passes it to all rules
+ * that need to see its type (see Rule.getNodeTypes()).
+ * Files are pre-scanned first (see TokenScan, scans are cached by SyntaxTree.scan()).
+ * Only rules a file is suspect for visit its AST, and files that are not suspect
+ * for any rule are not traversed at all. Files are parsed anyway, because only
+ * the parser detects syntax errors (which are reported for every rule).
+ * For each rule the number of visited nodes and the time spent
+ * in the rule is measured (see Config.RULE_STATISTICS).
+ *
+ * @author Nane Kratzke
+ */
+class RuleEngine {
+
+    /**
+     * Findings of a rule in a file.
+     */
+    static class Findings {
+
+        final Rule rule;
+
+        private final Rule.Visitor visitor;
+
+        private Exception failure = null;
+
+        /**
+         * Number of nodes passed to the rule.
+         */
+        long visits = 0;
+
+        /**
+         * Time spent in the rule (nanoseconds).
+         */
+        long time = 0;
+
+        /**
+         * The file is not suspect for the rule (according to the pre-scan), so it has not been visited.
+         */
+        private final boolean skipped;
+
+        Findings(Rule rule, Rule.Visitor visitor, boolean skipped) {
+            this.rule = rule;
+            this.visitor = visitor;
+            this.skipped = skipped;
+        }
+
+        /**
+         * Passes a node to the rule (unless the rule already failed).
+         * @param node Node
+         * @param position Pre-order position of the node
+         */
+        void visit(Node node, int position) {
+            if (this.failure != null) return;
+            long start = System.nanoTime();
+            try {
+                this.visitor.visit(node, position);
+            } catch (Exception ex) {
+                this.failure = ex;
+            }
+            this.visits++;
+            this.time += System.nanoTime() - start;
+        }
+
+        /**
+         * Annotates all violations and reports whether the rule is violated.
+         * @param file File name used for annotations
+         * @return true, if the rule is violated
+         *         false, otherwise (or if the rule could not be evaluated)
+         */
+        boolean report(String file) {
+            if (this.skipped) return false;
+            if (this.visitor == null) {
+                comment("Could not parse file: " + file);
+                return false;
+            }
+            long start = System.nanoTime();
+            try {
+                if (this.failure != null) throw this.failure;
+                List<Rule.Violation> violations = this.visitor.getViolations();
+                for (Rule.Violation v : violations) comment(file, v.node.getRange(), v.message);
+                return !violations.isEmpty();
+            } catch (Exception ex) {
+                comment("Check failed: " + ex);
+                comment("Is there a syntax error in your submission? " + file);
+                return false;
+            } finally {
+                this.time += System.nanoTime() - start;
+            }
+        }
+    }
+
+    /**
+     * Evaluates rules on a file (in a single traversal of its AST).
+     * @param file File to parse and inspect
+     * @param rules Rules to evaluate
+     * @return Findings (for each rule in the same order)
+     */
+    static List<Findings> inspect(String file, List<? extends Rule> rules) {
+        List<Boolean> suspect = suspects(file, rules);
+        SyntaxTree ast = SyntaxTree.of(file);
+        List<Findings> findings = new LinkedList<>();
+        for (int i = 0; i < rules.size(); i++) {
+            Rule rule = rules.get(i);
+            // A file that can not be parsed is reported for every rule
+            boolean skipped = ast != null && !suspect.get(i);
+            findings.add(new Findings(rule, ast == null || skipped ? null : rule.start(), skipped));
+        }
+        if (ast == null || !suspect.contains(true)) return findings;
+
+        Map<Class<?>, Findings[]> dispatch = new HashMap<>();
+        Node root = ast.getCompilationUnit();
+        int[] position = { 0 };
+        root.walk(Node.TreeTraversal.PREORDER, node -> {
+            position[0]++;
+            if (node == root) return;
+            Findings[] interested = dispatch.computeIfAbsent(node.getClass(), type -> findings.stream()
+                .filter(f -> !f.skipped)
+                .filter(f -> f.rule.getNodeTypes().stream().anyMatch(t -> t.isAssignableFrom(type)))
+                .toArray(Findings[]::new)
+            );
+            for (Findings f : interested) f.visit(node, position[0]);
+        });
+        return findings;
+    }
+
+    /**
+     * Decides for each rule whether a file is suspect (on the base of a pre-scan).
+     * All rules are suspect if the file can not be pre-scanned.
+     */
+    private static List<Boolean> suspects(String file, List<? extends Rule> rules) {
+        TokenScan scan = SyntaxTree.scan(DSL.file(file));
+        List<Boolean> suspect = new LinkedList<>();
+        for (Rule rule : rules) {
+            try {
+                suspect.add(scan == null || rule.isSuspect(scan));
+            } catch (RuntimeException ex) {
+                suspect.add(true);
+            }
+        }
+        return suspect;
+    }
+
+    /**
+     * Comments the number of visited nodes and the time spent per rule (summed up over all files).
+     * @param findings Findings of all inspected files
+     */
+    static void statistics(Collection<Findings> findings) {
+        Map<Rule, long[]> sums = new IdentityHashMap<>();
+        for (Findings f : findings) {
+            long[] sum = sums.computeIfAbsent(f.rule, r -> new long[2]);
+            sum[0] += f.visits;
+            sum[1] += f.time;
+        }
+        findings.stream().map(f -> f.rule).distinct().forEach(rule -> {
+            long[] sum = sums.get(rule);
+            comment(String.format("Rule '%s' visited %d nodes in %.2f ms", rule.getRemark(), sum[0], sum[1] / 1e6));
+        });
+    }
+}
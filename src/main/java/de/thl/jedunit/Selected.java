@@ -2,55 +2,159 @@ package de.thl.jedunit;
 
 import static de.thl.jedunit.DSL.comment;
 
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Optional;
+import java.util.NoSuchElementException;
+import java.util.function.BiConsumer;
+import java.util.function.BiPredicate;
 import java.util.function.Function;
 import java.util.function.Predicate;
-import java.util.stream.Collectors;
+import java.util.function.Supplier;
 
 import com.github.javaparser.ast.Node;
-import com.github.javaparser.ast.nodeTypes.NodeWithModifiers;
-import com.github.javaparser.ast.nodeTypes.NodeWithParameters;
-import com.github.javaparser.ast.nodeTypes.NodeWithSimpleName;
-import com.github.javaparser.ast.nodeTypes.NodeWithType;
+
+import de.thl.jedunit.NodeIndex.Cursor;
 
 /**
  * Selector concept for abstract syntax trees (AST).
- * 
+ *
+ * A selection is a set of nodes of one AST, represented as a bit set
+ * of their pre-order numbers (see NodeIndex). So selected nodes are always
+ * in document order, and every node is selected at most once. Nodes are
+ * identified by identity (two equal statements at different positions are different nodes).
+ * Selections of the same AST can be combined (see union(), intersect(), and except()).
+ *
+ * Selections are evaluated lazily. select(), filter() and the like only build a pipeline
+ * that is executed by terminal operations like exists(), count(), or iterating the nodes.
+ * exists(), isEmpty(), first() and asNode() stop at the first selected node,
+ * iterating (and annotate()) processes nodes as soon as they are selected.
+ * Once all nodes have been selected, they are kept (predicates are evaluated only once per node then).
+ *
  * @author Nane Kratzke
  */
 public class Selected <T extends Node> implements Iterable<T> {
 
     private String file = "";
 
-    private List<T> nodes = new LinkedList<>();
+    /**
+     * Index of the AST of the selected nodes (null for empty selections without AST).
+     */
+    private final NodeIndex index;
+
+    /**
+     * Pre-order numbers of the selected nodes (null as long as they have not been selected completely).
+     */
+    private BitSet members;
+
+    /**
+     * Selects the pre-order numbers of the selected nodes (null once members are known).
+     */
+    private Supplier<Cursor> pipeline;
+
+    Selected(T n, String f) {
+        this.index = NodeIndex.of(n);
+        this.members = new BitSet();
+        this.members.set(this.index.number(n));
+        this.file = f;
+    }
+
+    Selected(Collection<T> ns, String f) {
+        this.index = ns.isEmpty() ? null : NodeIndex.of(ns.iterator().next());
+        this.members = new BitSet();
+        for (T n : ns) this.members.set(number(n));
+        this.file = f;
+    }
 
-    Selected(T n, String f) { 
-        this.nodes.add(n); 
+    private Selected(NodeIndex index, BitSet members, String f) {
+        this.index = index;
+        this.members = members;
         this.file = f;
     }
 
-    Selected(Collection<T> ns, String f) { 
-        this.nodes.addAll(ns);
+    private Selected(NodeIndex index, Supplier<Cursor> pipeline, String f) {
+        this.index = index;
+        this.pipeline = pipeline;
         this.file = f;
     }
 
+    /**
+     * Returns the pre-order number of a node of the AST of this selection.
+     */
+    private int number(Node n) {
+        if (this.index == null || !this.index.contains(n)) {
+            throw new IllegalArgumentException("Node does not belong to the syntax tree of the selection: " + n);
+        }
+        return this.index.number(n);
+    }
+
+    /**
+     * Returns a cursor over the pre-order numbers of the selected nodes
+     * (executes the pipeline if the nodes have not been selected completely yet).
+     */
+    private Cursor cursor() {
+        BitSet members = this.members;
+        return members != null ? Cursor.of(members) : this.pipeline.get();
+    }
+
+    /**
+     * Returns the pre-order numbers of all selected nodes (selects them if necessary).
+     */
+    private BitSet members() {
+        if (this.members == null) {
+            this.members = collect(this.pipeline.get());
+            this.pipeline = null;
+        }
+        return this.members;
+    }
+
+    private static BitSet collect(Cursor cursor) {
+        BitSet numbers = new BitSet();
+        for (int n = cursor.next(); n >= 0; n = cursor.next()) numbers.set(n);
+        return numbers;
+    }
+
+    /**
+     * Adds a stage to the pipeline of this selection.
+     * @param stage Maps the pre-order numbers of this selection to the pre-order numbers of the new one
+     * @return New (lazily evaluated) selection
+     */
+    private <R extends Node> Selected<R> then(Function<Cursor, Cursor> stage) {
+        if (this.index == null) return new Selected<R>(null, new BitSet(), this.file);
+        return new Selected<R>(this.index, () -> stage.apply(this.cursor()), this.file);
+    }
+
     /**
      * Selects nodes that are recursive childs of selected nodes.
+     * Nodes are looked up in the node index of their AST (see NodeIndex),
+     * subtrees of nested selected nodes are only searched once.
      * @param selector Child nodes to be selected
      * @return Reference to selected child nodes
      */
     public <R extends Node> Selected<R> select(Class<R> selector) {
-        List<R> selected = new LinkedList<>();
-        for (T n : this.nodes) {
-            List<R> hits = n.findAll(selector);
-            hits.remove(n);
-            for (R hit : hits) selected.add(hit);
-        }
-        return new Selected<R>(selected, this.file);
+        return then(numbers -> this.index.descendants(numbers, selector));
+    }
+
+    /**
+     * Selects nodes that are recursive childs of selected nodes
+     * and match a selector expression (like "class &gt; method[name^=get]", see Selector).
+     * Combinators only refer to recursive childs of the selected nodes,
+     * &gt; at the beginning refers to the selected nodes themselves (like "&gt; block &gt; return").
+     * @param selector Selector expression
+     * @return Reference to selected child nodes (R must be a type of all selected nodes)
+     * @throws IllegalArgumentException if the selector expression is invalid
+     */
+    public <R extends Node> Selected<R> select(String selector) {
+        Selector compiled = Selector.compile(selector);
+        return then(numbers -> {
+            BitSet selected = new BitSet();
+            for (int n = numbers.next(); n >= 0; n = numbers.next()) {
+                for (Node hit : compiled.select(this.index.node(n))) selected.set(this.index.number(hit));
+            }
+            return Cursor.of(selected);
+        });
     }
 
     /**
@@ -67,66 +171,90 @@ public class Selected <T extends Node> implements Iterable<T> {
 
     /**
      * Selects nodes that are direct childs of selected nodes.
+     * Only direct childs are visited (not their subtrees).
      * @param selector Child nodes to be selected
      * @return Reference to selected child nodes
      */
-    @SuppressWarnings("unchecked")
     public <R extends Node> Selected<R> childSelect(Class<R> selector) {
-        List<R> selected = new LinkedList<>();
-        for (T n : this.nodes) {
-            for (Node child : n.findAll(selector)) {
-                if (child.getParentNode().get().equals(n)) selected.add((R)child);
-            }
-        }
-        return new Selected<R>(selected, this.file);
+        return then(numbers -> this.index.children(numbers, selector));
+    }
+
+    /**
+     * Selects nodes that are recursive parents of selected nodes
+     * (like the methods and classes that enclose selected return statements).
+     * @param selector Parent nodes to be selected
+     * @return Reference to selected parent nodes
+     */
+    public <R extends Node> Selected<R> ancestors(Class<R> selector) {
+        return axis((numbers, selected) -> this.index.ancestors(numbers, selector, selected));
+    }
+
+    /**
+     * Selects nodes that are direct parents of selected nodes
+     * (like the blocks of selected statements).
+     * @param selector Parent nodes to be selected
+     * @return Reference to selected parent nodes
+     */
+    public <R extends Node> Selected<R> parent(Class<R> selector) {
+        return axis((numbers, selected) -> this.index.parents(numbers, selector, selected));
     }
 
-    private boolean matchName(Node n, Optional<String> name) {
-        if (!(n instanceof NodeWithSimpleName)) return false;
-        NodeWithSimpleName<?> node = (NodeWithSimpleName<?>)n;
-        if (!name.isPresent()) return true;
-        return node.getNameAsString().equals(name.get());
+    /**
+     * Selects nodes that have the same parent as selected nodes
+     * (excluding the selected node itself, unless it is a sibling of another selected node).
+     * @param selector Sibling nodes to be selected
+     * @return Reference to selected sibling nodes
+     */
+    public <R extends Node> Selected<R> siblings(Class<R> selector) {
+        return axis((numbers, selected) -> this.index.siblings(numbers, selector, selected));
     }
 
-    private boolean matchModifier(Node n, Optional<String> modifier) {
-        if (!(n instanceof NodeWithModifiers)) return false;
-        NodeWithModifiers<?> node = (NodeWithModifiers<?>)n;
-        if (!modifier.isPresent() && !node.getModifiers().isEmpty()) return true;
-        if (!modifier.isPresent()) return false;
-        String modifiers = node.getModifiers().toString().toLowerCase();
-        return modifiers.contains(modifier.get().toLowerCase());
+    /**
+     * Selects the next siblings of selected nodes (like the statement following a selected statement),
+     * if they are of a type.
+     * @param selector Sibling nodes to be selected
+     * @return Reference to selected sibling nodes
+     */
+    public <R extends Node> Selected<R> next(Class<R> selector) {
+        return axis((numbers, selected) -> this.index.adjacent(numbers, true, selector, selected));
     }
 
-    private boolean matchType(Node n, Optional<String> type) {
-        if (!(n instanceof NodeWithType)) return false;
-        NodeWithType<?,?> node = (NodeWithType<?,?>)n;
-        if (!type.isPresent()) return true;
-        return node.getTypeAsString().equals(type.get());
+    /**
+     * Selects the previous siblings of selected nodes (like the statement preceding a selected statement),
+     * if they are of a type.
+     * @param selector Sibling nodes to be selected
+     * @return Reference to selected sibling nodes
+     */
+    public <R extends Node> Selected<R> previous(Class<R> selector) {
+        return axis((numbers, selected) -> this.index.adjacent(numbers, false, selector, selected));
     }
 
-    private boolean matchParam(Node n, Optional<String> param) {
-        if (!(n instanceof NodeWithParameters)) return false;
-        NodeWithParameters<?> node = (NodeWithParameters<?>)n;
-        if (!param.isPresent()) return !node.getParameters().isEmpty();
-        String ps = node.getParameters().stream().map(p -> p.getType() + (p.isVarArgs() ? "..." : "")).collect(Collectors.joining(","));
-        return ps.equals(param.get());
+    /**
+     * Adds a stage to the pipeline of this selection that needs all pre-order numbers of this selection
+     * (for axes whose results are not in document order, like parents).
+     * @param axis Adds the pre-order numbers of the new selection to a set
+     * @return New (lazily evaluated) selection
+     */
+    private <R extends Node> Selected<R> axis(BiConsumer<BitSet, BitSet> axis) {
+        return then(numbers -> {
+            BitSet selected = new BitSet();
+            axis.accept(collect(numbers), selected);
+            return Cursor.of(selected);
+        });
     }
 
-    @SuppressWarnings("unchecked")
+    /**
+     * Filters all nodes from the selected nodes that match any of several selector expressions
+     * (like "[name^=get]", "method:not([modifier=private])", or "class &gt; method", see Selector).
+     * Single attributes can be written without brackets (like "name=test", "modifier").
+     * @param filters Selector expressions
+     * @return Reference to filtered nodes (for method chaining)
+     * @throws IllegalArgumentException if a selector expression is invalid
+     */
     public Selected<T> filter(String... filters) {
-        List<T> selected = new LinkedList<>();
-        for (String filter : filters) {
-            String[] components = filter.split("\\*=|^=|$=|=");
-            String attribute = components[0].trim();
-            Optional<String> value = components.length == 2 ? Optional.of(components[1].trim()) : Optional.empty();
-            for (Node n : this.nodes) {
-                if (attribute.equals("name") && matchName(n, value)) selected.add((T)n);
-                if (attribute.equals("modifier") && matchModifier(n, value)) selected.add((T)n);
-                if (attribute.equals("type") && matchType(n, value)) selected.add((T)n);
-                if (attribute.equals("param") && matchParam(n, value)) selected.add((T)n);
-            }
-        }
-        return new Selected<T>(selected, this.file);
+        List<Selector> selectors = new LinkedList<>();
+        for (String filter : filters) selectors.add(Selector.compileFilter(filter));
+        return filter(n -> selectors.stream().anyMatch(selector -> selector.matches(n)));
     }
 
     /**
@@ -134,23 +262,94 @@ public class Selected <T extends Node> implements Iterable<T> {
      * @param fullfills Predicate that expresses a selection criteria
      * @return Reference to filtered nodes (for method chaining)
      */
+    @SuppressWarnings("unchecked")
     public Selected<T> filter(Predicate<T> fullfills) {
-        List<T> filtered = new LinkedList<>();
-        for (T n : this.nodes) {
-            if (fullfills.test(n)) filtered.add(n);
-        } 
-        return new Selected<T>(filtered, this.file);
+        return then(numbers -> () -> {
+            int n = numbers.next();
+            while (n >= 0 && !fullfills.test((T)this.index.node(n))) n = numbers.next();
+            return n;
+        });
     }
 
     /**
      * Eliminates all nodes that occure more than once in the selected nodes.
+     * Selections never contain a node twice, so this is the selection itself.
      * @return Reference to selected nodes (for method chaining)
      */
     public Selected<T> distinct() {
-        return new Selected<T>(
-            this.nodes.stream().distinct().collect(Collectors.toList()), 
-            this.file
-        );
+        return this;
+    }
+
+    /**
+     * Selects all nodes that are selected here or in another selection (of the same AST).
+     * @param other Other selection
+     * @return Reference to selected nodes (for method chaining)
+     */
+    public Selected<T> union(Selected<? extends T> other) {
+        return combine(other, (here, there) -> here || there);
+    }
+
+    /**
+     * Selects all nodes that are selected here and in another selection (of the same AST).
+     * @param other Other selection
+     * @return Reference to selected nodes (for method chaining)
+     */
+    public Selected<T> intersect(Selected<? extends T> other) {
+        return combine(other, (here, there) -> here && there);
+    }
+
+    /**
+     * Selects all nodes that are selected here but not in another selection (of the same AST).
+     * @param other Other selection
+     * @return Reference to selected nodes (for method chaining)
+     */
+    public Selected<T> except(Selected<? extends T> other) {
+        return combine(other, (here, there) -> here && !there);
+    }
+
+    /**
+     * Combines two selections by merging their pre-order numbers (lazily).
+     * @param keep Decides whether a node is kept (depending on whether it is selected here and there)
+     * @throws IllegalArgumentException if the selections belong to different ASTs
+     */
+    private Selected<T> combine(Selected<? extends T> other, BiPredicate<Boolean, Boolean> keep) {
+        NodeIndex index = this.index == null ? other.index : this.index;
+        if (index == null) return new Selected<T>(null, new BitSet(), this.file);
+        Supplier<Cursor> others = other::cursor;
+        if (other.index == null) {
+            others = () -> Cursor.of(new BitSet());
+        } else if (index != other.index) {
+            // Index has been built again (modified AST), so nodes are mapped by identity
+            BitSet mapped = new BitSet();
+            for (Node n : other) mapped.set(number(n));
+            others = () -> Cursor.of(mapped);
+        }
+        Supplier<Cursor> there = others;
+        Supplier<Cursor> here = this.index == null ? () -> Cursor.of(new BitSet()) : this::cursor;
+        return new Selected<T>(index, () -> merge(here.get(), there.get(), keep), this.file);
+    }
+
+    /**
+     * Merges two cursors (both in ascending order).
+     */
+    private static Cursor merge(Cursor here, Cursor there, BiPredicate<Boolean, Boolean> keep) {
+        return new Cursor() {
+            private int x = here.next();
+            private int y = there.next();
+
+            @Override
+            public int next() {
+                while (this.x >= 0 || this.y >= 0) {
+                    int n = this.y < 0 || (this.x >= 0 && this.x < this.y) ? this.x : this.y;
+                    boolean inHere = n == this.x;
+                    boolean inThere = n == this.y;
+                    if (inHere) this.x = here.next();
+                    if (inThere) this.y = there.next();
+                    if (keep.test(inHere, inThere)) return n;
+                }
+                return -1;
+            }
+        };
     }
 
     /**
@@ -160,7 +359,7 @@ public class Selected <T extends Node> implements Iterable<T> {
      * @return Self reference (for method chaining)
      */
     public Selected<T> annotate(String msg) {
-        for(T node : this.nodes) {
+        for(T node : this) {
             comment(this.file, node.getRange(), msg);
         }
         return this;
@@ -173,7 +372,7 @@ public class Selected <T extends Node> implements Iterable<T> {
      * @return Self reference (for method chaining)
      */
     public Selected<T> annotate(Function<T, String> msg) {
-        for (T node  : this.nodes) {
+        for (T node : this) {
             comment(this.file, node.getRange(), msg.apply(node));
         }
         return this;
@@ -184,37 +383,74 @@ public class Selected <T extends Node> implements Iterable<T> {
      * @return first selected node
      */
     public Selected<T> first() {
-        return new Selected<T>(this.nodes.get(0), this.file);
+        return new Selected<T>(this.asNode(), this.file);
     }
 
     /**
-     * Returns an iterator over selected nodes.
+     * Returns an iterator over selected nodes (in document order).
+     * Nodes are selected while iterating.
      * @return Iterator object to process selected nodes
      */
     public Iterator<T> iterator() {
-        return this.nodes.iterator();
+        BitSet known = this.members;
+        Cursor cursor = known != null ? Cursor.of(known) : this.pipeline.get();
+        return new Iterator<T>() {
+            private final BitSet selected = new BitSet();
+            private int next = cursor.next();
+
+            @Override
+            public boolean hasNext() {
+                return this.next >= 0;
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public T next() {
+                if (this.next < 0) throw new NoSuchElementException();
+                T node = (T)index.node(this.next);
+                this.selected.set(this.next);
+                this.next = cursor.next();
+                if (this.next < 0 && members == null) {
+                    members = this.selected;
+                    pipeline = null;
+                }
+                return node;
+            }
+        };
     }
 
     /**
      * Returns whether no nodes have been selected.
+     * Stops at the first selected node.
      * @return true, if no nodes are selected
      *         false, otherwise
      */
-    public boolean isEmpty() { return this.nodes.isEmpty(); }
+    public boolean isEmpty() { return this.cursor().next() < 0; }
 
     /**
      * Returns whether only a single node is selected.
+     * Stops at the second selected node.
      */
-    public boolean isSingle() { return this.nodes.size() == 1; }
+    public boolean isSingle() {
+        Cursor cursor = this.cursor();
+        return cursor.next() >= 0 && cursor.next() < 0;
+    }
 
     /**
      * Gets the first selected node.
+     * Stops at the first selected node.
      * @return First selected node.
      */
-    public T asNode() { return this.nodes.get(0); }
+    @SuppressWarnings("unchecked")
+    public T asNode() {
+        int n = this.cursor().next();
+        if (n < 0) throw new IndexOutOfBoundsException("No node selected");
+        return (T)this.index.node(n);
+    }
 
     /**
      * Returns whether selected node exists.
+     * Stops at the first selected node.
      * @return true, if nodes are selected
      *         false, otherwise
      */
@@ -223,11 +459,11 @@ public class Selected <T extends Node> implements Iterable<T> {
     /**
      * Returns the amount of selected nodes.
      */
-    public int count() { return this.nodes.size(); }
+    public int count() { return this.members().cardinality(); }
 
     /**
      * Returns the file where the selected nodes are coded.
      */
     public String getFile() { return this.file; }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,493 @@
+package de.thl.jedunit;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiPredicate;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.github.javaparser.ast.Node;
+import com.github.javaparser.ast.body.Parameter;
+import com.github.javaparser.ast.nodeTypes.NodeWithModifiers;
+import com.github.javaparser.ast.nodeTypes.NodeWithParameters;
+import com.github.javaparser.ast.nodeTypes.NodeWithSimpleName;
+import com.github.javaparser.ast.nodeTypes.NodeWithType;
+
+/**
+ * Compiled selector expression (comparable to CSS selectors for a DOM-tree), like
+ *
+ *   class > method[name^=get]:not([modifier=private])
+ *   method:has(for, while) > block > return
+ *
+ * Syntax:
+ * - Types are the abbreviations of the DSL (like method, clazz, field, if, for)
+ *   in any case, class (for clazz), the simple names of JavaParser node classes (like MethodCallExpr),
+ *   or * for all nodes. Types include subtypes (callable selects methods and constructors).
+ * - Attributes: [name], [modifier], [type], and [param] (the parameter types like int,String)
+ *   check for the existence of an attribute. Values are compared with = (equals),
+ *   *= (contains), ^= (starts with), and $= (ends with), like [name^=get].
+ *   Values may be quoted ([type="int[]"]). Modifiers are compared case-insensitively.
+ * - Combinators: a b (b is a recursive child of a), a &gt; b (b is a direct child of a).
+ * - Pseudo classes: :not(selectors) and :has(relative selectors) like :has(&gt; return).
+ * - Comma separated selectors match if any of them matches.
+ *
+ * Expressions are parsed once and cached. Attributes are compared without
+ * printing source code, and candidates are looked up in the node index of their AST (see NodeIndex).
+ * Invalid expressions raise an IllegalArgumentException.
+ *
+ * @author Nane Kratzke
+ */
+class Selector {
+
+    /**
+     * Maximum number of cached expressions.
+     */
+    private static final int CACHE_SIZE = 1024;
+
+    private static final Map<String, Selector> CACHE = new ConcurrentHashMap<>();
+
+    /**
+     * Filter expressions without brackets (like name=test, see compileFilter()).
+     */
+    private static final Pattern PLAIN_ATTRIBUTE = Pattern.compile("\\s*(name|modifier|type|param)\\s*(?:(\\*=|\\^=|\\$=|=)(.*))?");
+
+    private static final List<String> PACKAGES = Arrays.asList(
+        "com.github.javaparser.ast.",
+        "com.github.javaparser.ast.body.",
+        "com.github.javaparser.ast.expr.",
+        "com.github.javaparser.ast.stmt.",
+        "com.github.javaparser.ast.type.",
+        "com.github.javaparser.ast.comments."
+    );
+
+    /**
+     * Types by the lower case names of the DSL abbreviations (like method for DSL.METHOD).
+     */
+    private static final Map<String, Class<? extends Node>> ABBREVIATIONS = abbreviations();
+
+    private static final Map<String, Class<? extends Node>> TYPES = new ConcurrentHashMap<>();
+
+    /**
+     * Compound selector (like method[name=a]:not([modifier=private])).
+     */
+    private static class Compound implements Predicate<Node> {
+        Class<? extends Node> type = Node.class;
+        final List<Predicate<Node>> conditions = new ArrayList<>();
+
+        @Override
+        public boolean test(Node node) {
+            if (!this.type.isInstance(node)) return false;
+            for (Predicate<Node> condition : this.conditions) if (!condition.test(node)) return false;
+            return true;
+        }
+    }
+
+    /**
+     * Compound selectors joined by combinators (like class &gt; method return).
+     */
+    private static class Complex {
+        final List<Compound> compounds = new ArrayList<>();
+
+        /**
+         * Indicates for every compound whether it must be a direct child of the previous one
+         * (of the scope for the first one).
+         */
+        final List<Boolean> child = new ArrayList<>();
+
+        Class<? extends Node> type() {
+            return this.compounds.get(this.compounds.size() - 1).type;
+        }
+
+        boolean matches(Node node, Node scope) {
+            return matches(this.compounds.size() - 1, node, scope);
+        }
+
+        private boolean matches(int i, Node node, Node scope) {
+            if (!this.compounds.get(i).test(node)) return false;
+            Node parent = node.getParentNode().orElse(null);
+            if (i == 0) return !this.child.get(0) || parent == scope;
+            if (this.child.get(i)) return parent != null && parent != scope && matches(i - 1, parent, scope);
+            for (Node ancestor = parent; ancestor != null && ancestor != scope; ancestor = ancestor.getParentNode().orElse(null)) {
+                if (matches(i - 1, ancestor, scope)) return true;
+            }
+            return false;
+        }
+    }
+
+    private final String expression;
+
+    private final List<Complex> alternatives;
+
+    /**
+     * Most specific common type of all alternatives.
+     */
+    private final Class<? extends Node> type;
+
+    private Selector(String expression, List<Complex> alternatives) {
+        this.expression = expression;
+        this.alternatives = alternatives;
+        Class<?> common = alternatives.get(0).type();
+        for (Complex alternative : alternatives) {
+            while (!common.isAssignableFrom(alternative.type())) common = common.getSuperclass();
+        }
+        this.type = common.asSubclass(Node.class);
+    }
+
+    /**
+     * Returns the compiled selector of an expression.
+     * @param expression Selector expression
+     * @return Selector
+     * @throws IllegalArgumentException if the expression is invalid
+     */
+    static Selector compile(String expression) {
+        return cached(expression, () -> {
+            Parser parser = new Parser(expression);
+            List<Complex> alternatives = parser.list(true);
+            parser.end();
+            return new Selector(expression, alternatives);
+        });
+    }
+
+    /**
+     * Returns the compiled selector of a filter expression.
+     * Filters are selectors without relation to a scope, or single attributes
+     * without brackets (like name=test or modifier, see Selected.filter()).
+     * @param expression Filter expression
+     * @return Selector
+     * @throws IllegalArgumentException if the expression is invalid
+     */
+    static Selector compileFilter(String expression) {
+        return cached("filter:" + expression, () -> {
+            Matcher plain = PLAIN_ATTRIBUTE.matcher(expression);
+            if (plain.matches()) {
+                Complex complex = new Complex();
+                Compound compound = new Compound();
+                compound.conditions.add(attribute(plain.group(1), plain.group(2), plain.group(3) == null ? null : plain.group(3).trim()));
+                complex.compounds.add(compound);
+                complex.child.add(false);
+                return new Selector(expression, Arrays.asList(complex));
+            }
+            Parser parser = new Parser(expression);
+            List<Complex> alternatives = parser.list(false);
+            parser.end();
+            return new Selector(expression, alternatives);
+        });
+    }
+
+    private static Selector cached(String key, Supplier<Selector> compilation) {
+        Selector selector = CACHE.get(key);
+        if (selector != null) return selector;
+        selector = compilation.get();
+        if (CACHE.size() >= CACHE_SIZE) CACHE.clear();
+        CACHE.put(key, selector);
+        return selector;
+    }
+
+    /**
+     * Returns the most specific type all matching nodes have.
+     */
+    Class<? extends Node> getType() {
+        return this.type;
+    }
+
+    /**
+     * Checks whether a node matches (combinators may refer to all ancestors of the node).
+     */
+    boolean matches(Node node) {
+        return matches(node, null);
+    }
+
+    private boolean matches(Node node, Node scope) {
+        for (Complex alternative : this.alternatives) if (alternative.matches(node, scope)) return true;
+        return false;
+    }
+
+    /**
+     * Selects all recursive childs of a node that match (in document order).
+     * Combinators only refer to recursive childs of the node (&gt; at the beginning refers to the node itself).
+     * @param scope Node
+     * @return Matching recursive childs
+     */
+    <R extends Node> List<R> select(Node scope) {
+        List<R> selected = new ArrayList<>();
+        select(scope, selected, false);
+        return selected;
+    }
+
+    /**
+     * Checks whether any recursive child of a node matches (see select()).
+     */
+    boolean exists(Node scope) {
+        return select(scope, new ArrayList<>(), true);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <R extends Node> boolean select(Node scope, List<R> selected, boolean first) {
+        for (Node candidate : NodeIndex.descendantsOf(scope, this.type)) {
+            if (!matches(candidate, scope)) continue;
+            if (first) return true;
+            selected.add((R)candidate);
+        }
+        return !selected.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return this.expression;
+    }
+
+    /**
+     * Resolves a type name (see class documentation).
+     */
+    private static Class<? extends Node> type(String name) {
+        if (name.equals("class")) return DSL.CLAZZ;
+        Class<? extends Node> abbreviation = ABBREVIATIONS.get(name.toLowerCase());
+        if (abbreviation != null) return abbreviation;
+        return TYPES.computeIfAbsent(name, n -> {
+            for (String pkg : PACKAGES) {
+                try {
+                    Class<?> type = Class.forName(pkg + n);
+                    if (Node.class.isAssignableFrom(type)) return type.asSubclass(Node.class);
+                } catch (ClassNotFoundException ex) {
+                    // Next package
+                }
+            }
+            return null;
+        });
+    }
+
+    private static Map<String, Class<? extends Node>> abbreviations() {
+        Map<String, Class<? extends Node>> abbreviations = new HashMap<>();
+        for (Field field : DSL.class.getFields()) {
+            if (!Modifier.isStatic(field.getModifiers()) || field.getType() != Class.class) continue;
+            try {
+                Class<?> type = (Class<?>)field.get(null);
+                if (Node.class.isAssignableFrom(type)) abbreviations.put(field.getName().toLowerCase(), type.asSubclass(Node.class));
+            } catch (IllegalAccessException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+        return abbreviations;
+    }
+
+    /**
+     * Returns the condition of an attribute.
+     * @param name Attribute
+     * @param operator Operator (null to check the existence of the attribute)
+     * @param value Value (null to check the existence of the attribute)
+     */
+    private static Predicate<Node> attribute(String name, String operator, String value) {
+        BiPredicate<String, String> op = operator(operator);
+        switch (name) {
+            case "name": return n -> n instanceof NodeWithSimpleName
+                && (value == null || op.test(((NodeWithSimpleName<?>)n).getNameAsString(), value));
+            case "type": return n -> n instanceof NodeWithType
+                && (value == null || op.test(((NodeWithType<?, ?>)n).getTypeAsString(), value));
+            case "param": return n -> {
+                if (!(n instanceof NodeWithParameters)) return false;
+                List<Parameter> params = ((NodeWithParameters<?>)n).getParameters();
+                if (value == null) return !params.isEmpty();
+                StringBuilder types = new StringBuilder();
+                for (Parameter p : params) {
+                    if (types.length() > 0) types.append(",");
+                    types.append(p.getType().asString()).append(p.isVarArgs() ? "..." : "");
+                }
+                return op.test(types.toString(), value);
+            };
+            case "modifier": return n -> {
+                if (!(n instanceof NodeWithModifiers)) return false;
+                if (value == null) return !((NodeWithModifiers<?>)n).getModifiers().isEmpty();
+                String modifier = value.toLowerCase();
+                return ((NodeWithModifiers<?>)n).getModifiers().stream().anyMatch(m -> op.test(m.asString(), modifier));
+            };
+            default: throw new IllegalArgumentException("Unknown attribute: " + name);
+        }
+    }
+
+    private static BiPredicate<String, String> operator(String operator) {
+        if (operator == null || operator.equals("=")) return String::equals;
+        if (operator.equals("*=")) return String::contains;
+        if (operator.equals("^=")) return String::startsWith;
+        if (operator.equals("$=")) return String::endsWith;
+        throw new IllegalArgumentException("Unknown operator: " + operator);
+    }
+
+    /**
+     * Recursive descent parser for selector expressions.
+     */
+    private static class Parser {
+        private final String s;
+        private int i = 0;
+
+        Parser(String s) {
+            this.s = s;
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(String.format("Invalid selector '%s' at position %d: %s", this.s, this.i, message));
+        }
+
+        private boolean skipWhitespace() {
+            int start = this.i;
+            while (this.i < this.s.length() && Character.isWhitespace(this.s.charAt(this.i))) this.i++;
+            return this.i > start;
+        }
+
+        private boolean peek(char c) {
+            return this.i < this.s.length() && this.s.charAt(this.i) == c;
+        }
+
+        private void expect(char c) {
+            if (!peek(c)) throw error("'" + c + "' expected");
+            this.i++;
+        }
+
+        void end() {
+            skipWhitespace();
+            if (this.i < this.s.length()) throw error("unexpected '" + this.s.charAt(this.i) + "'");
+        }
+
+        private String identifier() {
+            int start = this.i;
+            while (this.i < this.s.length() && Character.isJavaIdentifierPart(this.s.charAt(this.i))) this.i++;
+            if (start == this.i) throw error("identifier expected");
+            return this.s.substring(start, this.i);
+        }
+
+        /**
+         * Comma separated selectors.
+         * @param relative Selectors may start with &gt; (relation to a scope)
+         */
+        List<Complex> list(boolean relative) {
+            List<Complex> list = new ArrayList<>();
+            list.add(complex(relative));
+            while (peek(',')) {
+                this.i++;
+                list.add(complex(relative));
+            }
+            return list;
+        }
+
+        private Complex complex(boolean relative) {
+            Complex complex = new Complex();
+            skipWhitespace();
+            boolean child = false;
+            if (peek('>')) {
+                if (!relative) throw error("selector must not start with '>' here");
+                this.i++;
+                skipWhitespace();
+                child = true;
+            }
+            complex.compounds.add(compound());
+            complex.child.add(child);
+            while (true) {
+                boolean whitespace = skipWhitespace();
+                if (this.i >= this.s.length() || peek(',') || peek(')')) break;
+                child = peek('>');
+                if (child) {
+                    this.i++;
+                    skipWhitespace();
+                } else if (!whitespace) {
+                    throw error("unexpected '" + this.s.charAt(this.i) + "'");
+                }
+                complex.compounds.add(compound());
+                complex.child.add(child);
+            }
+            return complex;
+        }
+
+        private Compound compound() {
+            Compound compound = new Compound();
+            int start = this.i;
+            if (peek('*')) {
+                this.i++;
+            } else if (this.i < this.s.length() && Character.isJavaIdentifierStart(this.s.charAt(this.i))) {
+                String name = identifier();
+                Class<? extends Node> type = type(name);
+                if (type == null) {
+                    this.i = start;
+                    throw error("unknown type " + name);
+                }
+                compound.type = type;
+            }
+            while (peek('[') || peek(':')) {
+                if (peek('[')) compound.conditions.add(attribute());
+                else compound.conditions.add(pseudoClass());
+            }
+            if (start == this.i) throw error("selector expected");
+            return compound;
+        }
+
+        private Predicate<Node> attribute() {
+            expect('[');
+            skipWhitespace();
+            int start = this.i;
+            String name = identifier();
+            skipWhitespace();
+            String operator = null;
+            String value = null;
+            for (String op : Arrays.asList("*=", "^=", "$=", "=")) {
+                if (this.s.startsWith(op, this.i)) {
+                    operator = op;
+                    this.i += op.length();
+                    value = value();
+                    break;
+                }
+            }
+            expect(']');
+            try {
+                return Selector.attribute(name, operator, value);
+            } catch (IllegalArgumentException ex) {
+                this.i = start;
+                throw error(ex.getMessage());
+            }
+        }
+
+        private String value() {
+            skipWhitespace();
+            if (peek('"') || peek('\'')) {
+                char quote = this.s.charAt(this.i++);
+                int end = this.s.indexOf(quote, this.i);
+                if (end < 0) throw error("unterminated string");
+                String value = this.s.substring(this.i, end);
+                this.i = end + 1;
+                skipWhitespace();
+                return value;
+            }
+            int end = this.s.indexOf(']', this.i);
+            if (end < 0) throw error("']' expected");
+            String value = this.s.substring(this.i, end).trim();
+            this.i = end;
+            return value;
+        }
+
+        private Predicate<Node> pseudoClass() {
+            expect(':');
+            int start = this.i;
+            String name = identifier();
+            expect('(');
+            Predicate<Node> condition;
+            if (name.equals("not")) {
+                Selector not = new Selector(this.s, list(false));
+                condition = n -> !not.matches(n);
+            } else if (name.equals("has")) {
+                Selector has = new Selector(this.s, list(true));
+                condition = n -> has.exists(n);
+            } else {
+                this.i = start;
+                throw error("unknown pseudo class :" + name);
+            }
+            skipWhitespace();
+            expect(')');
+            return condition;
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package de.thl.jedunit;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.JavaFileObject.Kind;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+
+/**
+ * Compiles submissions in memory (instead of running javac as a separate process).
+ *
+ * One compiler and one file manager are reused for all compilations,
+ * so the indexes of the class path are only built once.
+ * Shared files (Solution.java) do not depend on submissions, so they are compiled
+ * once per assignment and their bytecode is reused for all submissions of the assignment.
+ * Their classes can also be loaded once per assignment and shared by all submissions
+ * (see sharedClasses()).
+ *
+ * Checks.java refers to classes of the student (and the bytecode of these calls
+ * depends on the signatures the student has chosen), so it is compiled
+ * together with the files of the student for every submission.
+ * If shared files do not compile on their own, they are compiled with every submission as well.
+ *
+ * @author Nane Kratzke
+ */
+public class SourceCompiler {
+
+    /**
+     * Instructor-owned source files.
+     */
+    public static final List<String> INSTRUCTOR_FILES = Arrays.asList("Checks.java", "Solution.java");
+
+    /**
+     * Instructor-owned source files that must not depend on submission files
+     * (so that their classes can be shared by all submissions of an assignment).
+     */
+    public static final List<String> SHARED_FILES = Arrays.asList("Solution.java");
+
+    /**
+     * Raised if sources could not be compiled.
+     */
+    public static class CompilationError extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        CompilationError(String diagnostics) {
+            super(diagnostics);
+        }
+    }
+
+    private final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+
+    private final StandardJavaFileManager files;
+
+    /**
+     * Maximum number of assignments whose shared classes are kept.
+     */
+    public static final int ASSIGNMENTS = 8;
+
+    /**
+     * Bytecode of shared classes by hash of the instructor-owned sources (least recently used first).
+     */
+    private final Map<String, Map<String, byte[]>> sharedClasses = new LinkedHashMap<String, Map<String, byte[]>>(ASSIGNMENTS, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Map<String, byte[]>> eldest) {
+            return size() > ASSIGNMENTS;
+        }
+    };
+
+    /**
+     * Creates a compiler. Requires a JDK (not only a JRE).
+     */
+    public SourceCompiler() {
+        if (this.compiler == null) throw new IllegalStateException("No Java compiler available (JDK required)");
+        this.files = this.compiler.getStandardFileManager(null, null, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Compiles all Java files of a submission directory.
+     * @param directory Submission directory
+     * @return Bytecode by binary class name (instructor and student classes)
+     * @throws CompilationError if the sources do not compile
+     * @throws IOException if the sources cannot be read
+     */
+    public synchronized Map<String, byte[]> compile(File directory) throws CompilationError, IOException {
+        File[] sources = directory.listFiles((dir, name) -> name.endsWith(".java"));
+        if (sources == null) throw new IOException("Not a directory: " + directory);
+
+        String key = assignment(directory);
+        if (!this.sharedClasses.containsKey(key)) {
+            List<File> shared = new LinkedList<>();
+            for (File source : sources) {
+                if (SHARED_FILES.contains(source.getName())) shared.add(source);
+            }
+            Map<String, byte[]> sharable;
+            try {
+                sharable = compile(shared, new HashMap<>());
+            } catch (CompilationError ex) {
+                sharable = new HashMap<>();
+            }
+            this.sharedClasses.put(key, sharable);
+        }
+
+        Map<String, byte[]> provided = this.sharedClasses.get(key);
+        List<File> submission = new LinkedList<>();
+        for (File source : sources) {
+            if (provided.isEmpty() || !SHARED_FILES.contains(source.getName())) submission.add(source);
+        }
+        Map<String, byte[]> classes = compile(submission, provided);
+        classes.putAll(provided);
+        return classes;
+    }
+
+    /**
+     * Identifies the assignment of a submission directory
+     * (submissions with the same instructor-owned files belong to the same assignment).
+     * @param directory Submission directory
+     * @return Hash of the instructor-owned files
+     * @throws IOException if the sources cannot be read
+     */
+    public String assignment(File directory) throws IOException {
+        return digest(instructorFiles(directory));
+    }
+
+    /**
+     * Returns the bytecode of all classes compiled from shared files of an assignment.
+     * @param assignment Assignment (see assignment())
+     * @return Bytecode by binary class name (empty if no submission of the assignment has been compiled
+     *         since the last ASSIGNMENTS other assignments)
+     */
+    public synchronized Map<String, byte[]> sharedClasses(String assignment) {
+        return new HashMap<>(this.sharedClasses.getOrDefault(assignment, new HashMap<>()));
+    }
+
+    private static List<File> instructorFiles(File directory) throws IOException {
+        File[] files = directory.listFiles((dir, name) -> INSTRUCTOR_FILES.contains(name));
+        if (files == null) throw new IOException("Not a directory: " + directory);
+        return new LinkedList<>(Arrays.asList(files));
+    }
+
+    private Map<String, byte[]> compile(List<File> sources, Map<String, byte[]> provided) throws CompilationError {
+        MemoryFiles output = new MemoryFiles(provided);
+        if (sources.isEmpty()) return new HashMap<>();
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        List<String> options = Arrays.asList(
+            "-proc:none",
+            "-classpath", System.getProperty("java.class.path")
+        );
+        boolean success = this.compiler.getTask(
+            null, output, diagnostics, options, null, this.files.getJavaFileObjectsFromFiles(sources)
+        ).call();
+        if (!success) throw new CompilationError(
+            diagnostics.getDiagnostics().stream()
+                .filter(d -> d.getKind() == Diagnostic.Kind.ERROR)
+                .map(d -> String.format("%s:%d: error: %s", name(d), d.getLineNumber(), d.getMessage(null)))
+                .collect(Collectors.joining("\n"))
+        );
+        return output.classes();
+    }
+
+    private static String name(Diagnostic<? extends JavaFileObject> d) {
+        if (d.getSource() == null) return "";
+        return new File(d.getSource().toUri()).getName();
+    }
+
+    /**
+     * Hash of the names and contents of a set of source files.
+     */
+    private static String digest(List<File> sources) throws IOException {
+        try {
+            MessageDigest sha = MessageDigest.getInstance("SHA-256");
+            Set<File> sorted = new TreeSet<>(sources);
+            for (File source : sorted) {
+                sha.update(source.getName().getBytes(StandardCharsets.UTF_8));
+                sha.update(Files.readAllBytes(source.toPath()));
+            }
+            StringBuilder hex = new StringBuilder();
+            for (byte b : sha.digest()) hex.append(String.format("%02x", b));
+            return hex.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Class file held in memory.
+     */
+    private static class MemoryClass extends SimpleJavaFileObject {
+
+        private final String name;
+        private byte[] bytecode;
+
+        MemoryClass(String name, byte[] bytecode) {
+            super(URI.create("memory:///" + name.replace('.', '/') + Kind.CLASS.extension), Kind.CLASS);
+            this.name = name;
+            this.bytecode = bytecode;
+        }
+
+        @Override
+        public InputStream openInputStream() {
+            return new ByteArrayInputStream(this.bytecode);
+        }
+
+        @Override
+        public OutputStream openOutputStream() {
+            return new ByteArrayOutputStream() {
+                @Override
+                public void close() throws IOException {
+                    super.close();
+                    MemoryClass.this.bytecode = this.toByteArray();
+                }
+            };
+        }
+    }
+
+    /**
+     * File manager that writes class files to memory
+     * and provides already compiled classes (of the unnamed package) on the class path.
+     */
+    private class MemoryFiles extends ForwardingJavaFileManager<StandardJavaFileManager> {
+
+        private final Map<String, MemoryClass> provided = new HashMap<>();
+        private final Map<String, MemoryClass> output = new HashMap<>();
+
+        MemoryFiles(Map<String, byte[]> provided) {
+            super(SourceCompiler.this.files);
+            provided.forEach((name, bytecode) -> this.provided.put(name, new MemoryClass(name, bytecode)));
+        }
+
+        @Override
+        public JavaFileObject getJavaFileForOutput(Location location, String name, Kind kind, FileObject sibling) throws IOException {
+            if (kind != Kind.CLASS) return super.getJavaFileForOutput(location, name, kind, sibling);
+            MemoryClass file = new MemoryClass(name, new byte[0]);
+            this.output.put(name, file);
+            return file;
+        }
+
+        @Override
+        public Iterable<JavaFileObject> list(Location location, String pkg, Set<Kind> kinds, boolean recurse) throws IOException {
+            Iterable<JavaFileObject> listed = super.list(location, pkg, kinds, recurse);
+            if (location != StandardLocation.CLASS_PATH || !pkg.isEmpty() || !kinds.contains(Kind.CLASS)) return listed;
+            List<JavaFileObject> all = new LinkedList<>(this.provided.values());
+            listed.forEach(all::add);
+            return all;
+        }
+
+        @Override
+        public String inferBinaryName(Location location, JavaFileObject file) {
+            if (file instanceof MemoryClass) return ((MemoryClass)file).name;
+            return super.inferBinaryName(location, file);
+        }
+
+        Map<String, byte[]> classes() {
+            Map<String, byte[]> classes = new HashMap<>();
+            this.output.forEach((name, file) -> classes.put(name, file.bytecode));
+            return classes;
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package de.thl.jedunit;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.TreeSet;
+
+/**
+ * Guard rails for pathological source files (like generated lookup tables or pasted data dumps).
+ *
+ * Files are measured in a single streaming pass before they are parsed:
+ * size, lines, nesting depth of brackets, and tokens (as an estimate of the number of AST nodes).
+ * Comments and literals do not count for nesting.
+ * The pass stops as soon as a limit is exceeded (see Config.MAX_FILE_SIZE, Config.MAX_LINES,
+ * Config.MAX_NESTING, and Config.MAX_TOKENS).
+ * Files that exceed a limit are not parsed (see SyntaxTree), and their evaluation
+ * is rejected (see Evaluator.evaluate()).
+ *
+ * @author Nane Kratzke
+ */
+class SourceLimits {
+
+    /**
+     * Raised if a file exceeds a limit.
+     */
+    static class Exceeded extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        Exceeded(String violation) {
+            super(violation);
+        }
+    }
+
+    private final String file;
+
+    long size = 0;
+
+    int lines = 1;
+
+    int nesting = 0;
+
+    int tokens = 0;
+
+    private SourceLimits(String file, long size) {
+        this.file = file;
+        this.size = size;
+    }
+
+    /**
+     * Measures a file (without reading it completely if a limit is exceeded).
+     * @param source File
+     * @return Measurements (incomplete, if a limit is exceeded)
+     * @throws IOException if the file can not be read
+     */
+    static SourceLimits measure(File source) throws IOException {
+        SourceLimits limits = new SourceLimits(source.getName(), source.length());
+        if (limits.violation() != null) return limits;
+        try (InputStream in = Files.newInputStream(source.toPath())) {
+            limits.scan(in);
+        }
+        return limits;
+    }
+
+    /**
+     * Checks the size of a file (without reading it).
+     * @param source File
+     * @throws Exceeded if the file is too large
+     */
+    static void checkSize(File source) {
+        new SourceLimits(source.getName(), source.length()).check();
+    }
+
+    /**
+     * Measures the content of a file.
+     * @param file File name (used for messages)
+     * @param content Content of the file
+     * @return Measurements (incomplete, if a limit is exceeded)
+     */
+    static SourceLimits measure(String file, byte[] content) {
+        SourceLimits limits = new SourceLimits(file, content.length);
+        try {
+            if (limits.violation() == null) limits.scan(new ByteArrayInputStream(content));
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+        return limits;
+    }
+
+    /**
+     * Returns the first limit a set of files exceeds.
+     * @param files Files (relative names are resolved against the evaluated submission directory)
+     * @return Violation (null if all files are within all limits or can not be read)
+     */
+    static String violation(Collection<String> files) {
+        for (String file : new TreeSet<>(files)) {
+            File source = DSL.file(file);
+            if (!source.isFile()) continue;
+            try {
+                String violation = measure(source).violation();
+                if (violation != null) return violation;
+            } catch (IOException ex) {
+                // Reported by the inspections and tests that read the file
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Checks the measurements against the current limits.
+     * @return Exceeded limit (null if all limits are kept)
+     */
+    String violation() {
+        if (Config.MAX_FILE_SIZE > 0 && this.size > Config.MAX_FILE_SIZE << 10) {
+            return String.format("%s is too large (%d KB, limit %d KB)", this.file, this.size >> 10, Config.MAX_FILE_SIZE);
+        }
+        if (Config.MAX_LINES > 0 && this.lines > Config.MAX_LINES) {
+            return String.format("%s has too many lines (more than %d)", this.file, Config.MAX_LINES);
+        }
+        if (Config.MAX_NESTING > 0 && this.nesting > Config.MAX_NESTING) {
+            return String.format("%s is nested too deeply (more than %d levels of brackets)", this.file, Config.MAX_NESTING);
+        }
+        if (Config.MAX_TOKENS > 0 && this.tokens > Config.MAX_TOKENS) {
+            return String.format("%s has too many tokens (more than %d)", this.file, Config.MAX_TOKENS);
+        }
+        return null;
+    }
+
+    /**
+     * Checks the measurements against the current limits.
+     * @throws Exceeded if a limit is exceeded
+     */
+    void check() {
+        String violation = violation();
+        if (violation != null) throw new Exceeded(violation);
+    }
+
+    /**
+     * Counts lines, nesting depth, and tokens (until a limit is exceeded).
+     */
+    private void scan(InputStream content) throws IOException {
+        Reader in = new BufferedReader(new InputStreamReader(content, StandardCharsets.UTF_8));
+        int depth = 0;
+        int previous = ' ';
+        boolean word = false;
+        for (int c = in.read(); c >= 0; previous = c, c = in.read()) {
+            if (c == '\n') {
+                this.lines++;
+                if (Config.MAX_LINES > 0 && this.lines > Config.MAX_LINES) return;
+            }
+            if (Character.isWhitespace(c)) {
+                word = false;
+                continue;
+            }
+            if (previous == '/' && (c == '/' || c == '*')) {
+                this.tokens--;
+                c = skipComment(in, c == '*');
+                word = false;
+                continue;
+            }
+            if (Character.isJavaIdentifierPart(c) || word && c == '.') {
+                if (!word) this.tokens++;
+                word = true;
+                continue;
+            }
+            word = false;
+            this.tokens++;
+            if (c == '"' || c == '\'') c = skipLiteral(in, c);
+            if (c == '(' || c == '[' || c == '{') this.nesting = Math.max(this.nesting, ++depth);
+            if (c == ')' || c == ']' || c == '}') depth--;
+            if (violation() != null) return;
+        }
+    }
+
+    /**
+     * Skips a comment (and counts its lines).
+     * @return Last character of the comment
+     */
+    private int skipComment(Reader in, boolean block) throws IOException {
+        int previous = ' ';
+        for (int c = in.read(); c >= 0; previous = c, c = in.read()) {
+            if (c == '\n') this.lines++;
+            if (!block && c == '\n') return c;
+            if (block && previous == '*' && c == '/') return ' ';
+        }
+        return ' ';
+    }
+
+    /**
+     * Skips a string or character literal.
+     * @return Last character of the literal
+     */
+    private int skipLiteral(Reader in, int quote) throws IOException {
+        for (int c = in.read(); c >= 0; c = in.read()) {
+            if (c == '\\') c = in.read();
+            else if (c == quote) return ' ';
+            if (c == '\n') {
+                this.lines++;
+                return c;
+            }
+        }
+        return ' ';
+    }
+}
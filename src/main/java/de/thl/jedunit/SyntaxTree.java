@@ -1,44 +1,405 @@
 package de.thl.jedunit;
 
+import static com.github.javaparser.ParseStart.COMPILATION_UNIT;
+import static com.github.javaparser.Providers.provider;
+
 import com.github.javaparser.JavaParser;
+import com.github.javaparser.ParseProblemException;
+import com.github.javaparser.ParseResult;
+import com.github.javaparser.ParserConfiguration;
 import com.github.javaparser.ast.CompilationUnit;
 import com.github.javaparser.ast.Node;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.util.HashMap;
-import java.util.Map;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Wrapper class for a JavaParser CompilationUnit.
  * Can be used to query the parsed abstract syntax tree (AST)
  * via selectors (comparable to the DOM-tree via CSS selectors).
- * 
+ * Selections are answered from an index of all nodes by type
+ * that is built once per AST (see NodeIndex).
+ *
+ * Parsed files are cached (see Config.PARSE_CACHE_SIZE and Config.PARSE_CACHE_MEMORY).
+ * A cached AST is only reused as long as the file has not been changed
+ * (same modification time and size, or same content).
+ * Long-running processes that know about changed files can invalidate cached ASTs explicitly.
+ * Files that exceed the configured limits are not parsed at all (see SourceLimits).
+ * Cached ASTs are shared, so they must not be modified.
+ * Unmodified ASTs can be read from several threads at once.
+ *
+ * All evaluated files can be parsed concurrently in advance (see prefetch() and Config.PARSER_THREADS).
+ * Every parser thread uses its own JavaParser instance.
+ * ASTs of instructor files (like Solution.java) of the evaluated directory are additionally stored
+ * next to the files, so that later evaluations do not have to parse them again
+ * (see SyntaxTreeStore and storeInstructorFiles()).
+ *
  * @author Nane Kratzke
- * 
+ *
  */
 public class SyntaxTree {
 
-    private String file;
+    private final String file;
+
+    private final CompilationUnit compilationUnit;
+
+    /**
+     * Estimated memory of an AST per byte of source code.
+     */
+    private static final long AST_BYTES_PER_SOURCE_BYTE = 80;
+
+    /**
+     * Modification times are only trusted if a file has not been modified
+     * within this time before it was checked (modification times are coarse on some file systems).
+     */
+    private static final long MTIME_GRANULARITY = 2000;
+
+    /**
+     * Cached parse result of a file.
+     */
+    private static class Parsed {
+        final long modified;
+        final long size;
+        final byte[] hash;
+        final long memory;
+        final CompilationUnit ast;
+        final RuntimeException failure;
+        final SourceLimits limits;
+        final long checked;
+
+        Parsed(long modified, long size, byte[] hash, CompilationUnit ast, RuntimeException failure, SourceLimits limits) {
+            this.modified = modified;
+            this.size = size;
+            this.hash = hash;
+            this.memory = size * AST_BYTES_PER_SOURCE_BYTE;
+            this.ast = ast;
+            this.failure = failure;
+            this.limits = limits;
+            this.checked = System.currentTimeMillis();
+        }
+
+        boolean isUnchanged(File file) {
+            return unchanged(file, this.modified, this.size, this.checked);
+        }
+    }
+
+    /**
+     * Cached pre-scan of a file (see TokenScan).
+     */
+    private static class Scanned {
+        final long modified;
+        final long size;
+        final byte[] hash;
+        final TokenScan scan;
+        final long checked;
+
+        Scanned(long modified, long size, byte[] hash, TokenScan scan) {
+            this.modified = modified;
+            this.size = size;
+            this.hash = hash;
+            this.scan = scan;
+            this.checked = System.currentTimeMillis();
+        }
+
+        boolean isUnchanged(File file) {
+            return unchanged(file, this.modified, this.size, this.checked);
+        }
+    }
+
+    /**
+     * Checks whether a file has not been changed since it was read (by modification time and size).
+     */
+    private static boolean unchanged(File file, long modified, long size, long checked) {
+        return file.lastModified() == modified
+            && file.length() == size
+            && checked - modified > MTIME_GRANULARITY;
+    }
+
+    /**
+     * Cache that stores already parsed source files by their absolute path
+     * (least recently used first).
+     */
+    private static final LinkedHashMap<String, Parsed> CACHE = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Estimated memory of all cached ASTs.
+     */
+    private static long cachedMemory = 0;
+
+    /**
+     * Cache that stores pre-scans of source files by their absolute path
+     * (least recently used first, at most Config.PARSE_CACHE_SIZE scans).
+     */
+    private static final LinkedHashMap<String, Scanned> SCANS = new LinkedHashMap<>(16, 0.75f, true);
 
-    private CompilationUnit compilationUnit;
+    /**
+     * JavaParser of the current thread (JavaParser instances must not be shared between threads).
+     */
+    private static final ThreadLocal<JavaParser> PARSER = ThreadLocal.withInitial(() -> new JavaParser(new ParserConfiguration()));
 
     /**
-     * Cache that stores already parsed source files by the Parser.
+     * Parser threads (see prefetch()).
      */
-    private static final Map<String, CompilationUnit> CACHE = new HashMap<>();
+    private static ExecutorService parsers = null;
+
+    private static int parserThreads = 0;
 
     SyntaxTree(String f) throws FileNotFoundException {
         this.file = f;
-        this.compilationUnit = CACHE.getOrDefault(
-            this.file, 
-            JavaParser.parse(new File(this.file))
-        );
+        this.compilationUnit = parse(DSL.file(this.file));
+    }
+
+    /**
+     * Parses a file for internal use (like DSL.parse()).
+     * @param f Java source file
+     * @return Parsed file (null if the file could not be parsed)
+     */
+    static SyntaxTree of(String f) {
+        try {
+            return new SyntaxTree(f);
+        } catch (Exception ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the parsed compilation unit (shared, must not be modified).
+     */
+    CompilationUnit getCompilationUnit() {
+        return this.compilationUnit;
     }
 
     public <T extends Node> Selected<T> select(Class<T> selector) {
         Selected<CompilationUnit> s = new Selected<>(this.compilationUnit, this.file);
         return s.select(selector);
     }
-    
-}
\ No newline at end of file
+
+    /**
+     * Selects all nodes that match a selector expression (like "class &gt; method[name^=get]", see Selector).
+     * @param selector Selector expression
+     * @return Selected nodes (T must be a type of all selected nodes)
+     * @throws IllegalArgumentException if the selector expression is invalid
+     */
+    public <T extends Node> Selected<T> select(String selector) {
+        Selected<CompilationUnit> s = new Selected<>(this.compilationUnit, this.file);
+        return s.select(selector);
+    }
+
+    /**
+     * Returns the AST of a file (from the cache if the file has not been changed).
+     * @param source Java source file
+     * @return AST
+     * @throws FileNotFoundException if the file cannot be read
+     * @throws SourceLimits.Exceeded if the file exceeds a limit (see SourceLimits)
+     */
+    private static CompilationUnit parse(File source) throws FileNotFoundException {
+        String key = source.getAbsolutePath();
+        Parsed cached;
+        synchronized (CACHE) {
+            cached = CACHE.get(key);
+        }
+        if (cached == null || !cached.isUnchanged(source)) cached = load(key, source, cached);
+        cached.limits.check();
+        if (cached.failure != null) throw cached.failure;
+        return cached.ast;
+    }
+
+    /**
+     * Reads a file and parses it (unless the cached or stored AST has been parsed from the same content).
+     * Files that exceed a limit are neither parsed nor cached.
+     */
+    private static Parsed load(String key, File source, Parsed cached) throws FileNotFoundException {
+        long modified = source.lastModified();
+        SourceLimits.checkSize(source);
+        byte[] content;
+        try {
+            content = Files.readAllBytes(source.toPath());
+        } catch (IOException ex) {
+            throw new FileNotFoundException(source + ": " + ex);
+        }
+        SourceLimits limits = SourceLimits.measure(source.getName(), content);
+        limits.check();
+        byte[] hash = hash(content);
+        if (cached != null && Arrays.equals(cached.hash, hash)) {
+            Parsed touched = new Parsed(modified, content.length, hash, cached.ast, cached.failure, limits);
+            store(key, touched);
+            return touched;
+        }
+
+        boolean stored = SyntaxTreeStore.isStored(source);
+        CompilationUnit ast = stored ? SyntaxTreeStore.load(source, hash) : null;
+        RuntimeException failure = null;
+        if (ast == null) try {
+            ParseResult<CompilationUnit> result = PARSER.get().parse(COMPILATION_UNIT, provider(new ByteArrayInputStream(content), StandardCharsets.UTF_8));
+            if (!result.isSuccessful()) throw new ParseProblemException(result.getProblems());
+            ast = result.getResult().get();
+            if (SyntaxTreeStore.isWritable(source)) SyntaxTreeStore.store(source, hash, ast);
+        } catch (RuntimeException ex) {
+            failure = ex;
+        }
+        if (ast != null) ast.setStorage(source.toPath());
+        Parsed parsed = new Parsed(modified, content.length, hash, ast, failure, limits);
+        store(key, parsed);
+        return parsed;
+    }
+
+    /**
+     * Returns the pre-scan of a file (see TokenScan).
+     * Scans are cached like ASTs, so that all rule sets inspecting a file
+     * (see RuleEngine) use the same scan.
+     * @param source Java source file
+     * @return Scan (null if the file can not be read or not be scanned reliably)
+     */
+    public static TokenScan scan(File source) {
+        String key = source.getAbsolutePath();
+        Scanned cached;
+        synchronized (SCANS) {
+            cached = SCANS.get(key);
+        }
+        if (cached != null && cached.isUnchanged(source)) return cached.scan;
+        long modified = source.lastModified();
+        byte[] content;
+        try {
+            content = Files.readAllBytes(source.toPath());
+        } catch (IOException ex) {
+            return null;
+        }
+        byte[] hash = hash(content);
+        TokenScan scan = cached != null && Arrays.equals(cached.hash, hash) ? cached.scan : null;
+        if (scan == null) {
+            scan = new TokenScan(new String(content, StandardCharsets.UTF_8));
+            if (!scan.isReliable()) scan = null;
+        }
+        synchronized (SCANS) {
+            SCANS.put(key, new Scanned(modified, content.length, hash, scan));
+            Iterator<Scanned> eldest = SCANS.values().iterator();
+            while (eldest.hasNext() && SCANS.size() > Math.max(1, Config.PARSE_CACHE_SIZE)) {
+                eldest.next();
+                eldest.remove();
+            }
+        }
+        return scan;
+    }
+
+    /**
+     * Sets the directory whose instructor files are stored persistently (see SyntaxTreeStore).
+     * Set by evaluations (see Evaluator.evaluate()), so that only their own instructor files are stored.
+     * @param directory Evaluation directory (null if no ASTs shall be stored)
+     */
+    public static void storeInstructorFiles(File directory) {
+        SyntaxTreeStore.storeFor(directory);
+    }
+
+    /**
+     * Parses files concurrently (using Config.PARSER_THREADS threads)
+     * and caches their ASTs, so that later parse() calls return immediately.
+     * Files that can not be parsed are reported when they are parsed the next time.
+     * @param files Files (relative names are resolved against the evaluated submission directory)
+     */
+    public static void prefetch(Collection<String> files) {
+        List<File> sources = new LinkedList<>();
+        for (String f : files) if (DSL.file(f).exists()) sources.add(DSL.file(f));
+        ExecutorService pool = parsers(Math.min(Config.PARSER_THREADS, sources.size()));
+        if (pool == null) return;
+        List<Future<CompilationUnit>> parsed = new LinkedList<>();
+        for (File source : sources) parsed.add(pool.submit(() -> parse(source)));
+        for (Future<CompilationUnit> ast : parsed) {
+            try {
+                ast.get();
+            } catch (ExecutionException ex) {
+                // Reported by parse()
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the parser threads (null if less than two threads are requested).
+     * The pool only grows, so that parser threads (and their parsers) are reused.
+     */
+    private static synchronized ExecutorService parsers(int threads) {
+        if (threads < 2) return null;
+        if (threads <= parserThreads) return parsers;
+        if (parsers != null) parsers.shutdown();
+        AtomicInteger count = new AtomicInteger();
+        parsers = Executors.newFixedThreadPool(threads, task -> {
+            Thread parser = new Thread(task, "jedunit-parser-" + count.incrementAndGet());
+            parser.setDaemon(true);
+            parser.setContextClassLoader(SyntaxTree.class.getClassLoader());
+            return parser;
+        });
+        parserThreads = threads;
+        return parsers;
+    }
+
+    private static void store(String key, Parsed parsed) {
+        synchronized (CACHE) {
+            Parsed replaced = CACHE.put(key, parsed);
+            if (replaced != null) cachedMemory -= replaced.memory;
+            cachedMemory += parsed.memory;
+            Iterator<Parsed> eldest = CACHE.values().iterator();
+            while (eldest.hasNext() && CACHE.size() > 1 && (
+                CACHE.size() > Config.PARSE_CACHE_SIZE || cachedMemory > Config.PARSE_CACHE_MEMORY << 20
+            )) {
+                cachedMemory -= eldest.next().memory;
+                eldest.remove();
+            }
+        }
+    }
+
+    private static byte[] hash(byte[] content) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(content);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Removes the cached AST of a file.
+     * @param file File (relative names are resolved against the evaluated submission directory)
+     */
+    public static void invalidate(String file) {
+        synchronized (CACHE) {
+            Parsed removed = CACHE.remove(DSL.file(file).getAbsolutePath());
+            if (removed != null) cachedMemory -= removed.memory;
+        }
+        synchronized (SCANS) {
+            SCANS.remove(DSL.file(file).getAbsolutePath());
+        }
+        TypeResolver.invalidate();
+    }
+
+    /**
+     * Removes all cached ASTs.
+     */
+    public static void invalidateAll() {
+        synchronized (CACHE) {
+            CACHE.clear();
+            cachedMemory = 0;
+        }
+        synchronized (SCANS) {
+            SCANS.clear();
+        }
+        TypeResolver.invalidate();
+    }
+}
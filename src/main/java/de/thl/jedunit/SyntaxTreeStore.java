@@ -0,0 +1,314 @@
+package de.thl.jedunit;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.github.javaparser.Position;
+import com.github.javaparser.Range;
+import com.github.javaparser.ast.AllFieldsConstructor;
+import com.github.javaparser.ast.CompilationUnit;
+import com.github.javaparser.ast.Node;
+import com.github.javaparser.ast.NodeList;
+import com.github.javaparser.ast.comments.Comment;
+import com.github.javaparser.metamodel.BaseNodeMetaModel;
+import com.github.javaparser.metamodel.JavaParserMetaModel;
+import com.github.javaparser.metamodel.PropertyMetaModel;
+
+/**
+ * Persistent store of parsed instructor files (see SourceCompiler.INSTRUCTOR_FILES).
+ *
+ * Instructor files like Solution.java are the same for every submission of an assignment,
+ * but every evaluation (a fresh JVM in VPL) had to parse them again.
+ * The first evaluation stores the AST next to the file (e.g. .Solution.java.ast),
+ * later evaluations load it via a memory-mapped buffer.
+ * ASTs are only stored for the instructor files of the running evaluation (see SyntaxTree.storeInstructorFiles()),
+ * so other users of the parser (like CohortQuery) never write files.
+ * A stored AST is only used if it has been stored from the same content (SHA-256).
+ *
+ * ASTs are serialized generically via the JavaParser metamodel:
+ * every node is stored with its type, its range, its properties (in constructor order),
+ * its comment and its orphan comments.
+ * The format depends on the metamodel, so stored ASTs of other JavaParser versions are ignored.
+ *
+ * @author Nane Kratzke
+ */
+class SyntaxTreeStore {
+
+    private static final int MAGIC = 0x4A415354; // JAST
+
+    private static final int VERSION = 1;
+
+    private static final String SUFFIX = ".ast";
+
+    /**
+     * All node types (the index of a type is its id within stored ASTs).
+     */
+    private static final List<BaseNodeMetaModel> TYPES = new ArrayList<>(JavaParserMetaModel.getNodeMetaModels());
+
+    private static final Map<BaseNodeMetaModel, Integer> IDS = new HashMap<>();
+
+    /**
+     * Fingerprint of the metamodel (changes with JavaParser versions that change the AST).
+     */
+    private static final int FINGERPRINT;
+
+    static {
+        TYPES.sort((a, b) -> a.getQualifiedClassName().compareTo(b.getQualifiedClassName()));
+        StringBuilder model = new StringBuilder();
+        for (BaseNodeMetaModel type : TYPES) {
+            IDS.put(type, IDS.size());
+            model.append(type.getQualifiedClassName()).append(':');
+            for (PropertyMetaModel p : type.getAllPropertyMetaModels()) model.append(p.getName()).append(',');
+        }
+        FINGERPRINT = model.toString().hashCode();
+    }
+
+    /**
+     * How nodes of a type are constructed.
+     */
+    private static class Layout {
+        final Constructor<?> constructor;
+
+        /**
+         * Properties passed to the constructor (in parameter order).
+         */
+        final List<PropertyMetaModel> parameters;
+
+        /**
+         * Further properties (except comments) and their setters.
+         */
+        final List<PropertyMetaModel> properties = new ArrayList<>();
+        final List<Method> setters = new ArrayList<>();
+
+        Layout(BaseNodeMetaModel type) {
+            this.constructor = Arrays.stream(type.getType().getConstructors())
+                .filter(c -> c.isAnnotationPresent(AllFieldsConstructor.class))
+                .findFirst()
+                .orElseThrow(() -> new IllegalStateException("No constructor for " + type));
+            this.parameters = type.getConstructorParameters();
+            for (PropertyMetaModel p : type.getAllPropertyMetaModels()) {
+                if (p.getName().equals("comment") || this.parameters.contains(p)) continue;
+                this.properties.add(p);
+                this.setters.add(Arrays.stream(type.getType().getMethods())
+                    .filter(m -> m.getName().equals(p.getSetterMethodName()) && m.getParameterCount() == 1)
+                    .findFirst()
+                    .orElseThrow(() -> new IllegalStateException("No setter for " + p)));
+            }
+        }
+    }
+
+    private static final Map<BaseNodeMetaModel, Layout> LAYOUTS = new HashMap<>();
+
+    private static synchronized Layout layout(BaseNodeMetaModel type) {
+        return LAYOUTS.computeIfAbsent(type, Layout::new);
+    }
+
+    /**
+     * Directory of the running evaluation (null if no ASTs shall be stored).
+     */
+    private static volatile File evaluation = null;
+
+    /**
+     * Sets the directory of the running evaluation.
+     * @param directory Evaluation directory (null if no ASTs shall be stored)
+     */
+    static void storeFor(File directory) {
+        evaluation = directory == null ? null : normalized(directory);
+    }
+
+    /**
+     * Checks whether the AST of a file is stored persistently (instructor files only).
+     */
+    static boolean isStored(File source) {
+        return SourceCompiler.INSTRUCTOR_FILES.contains(source.getName());
+    }
+
+    /**
+     * Checks whether the AST of a file may be stored
+     * (instructor files of the directory of the running evaluation only).
+     */
+    static boolean isWritable(File source) {
+        File directory = evaluation;
+        return directory != null && isStored(source) && directory.equals(normalized(source).getParentFile());
+    }
+
+    private static File normalized(File file) {
+        return file.toPath().toAbsolutePath().normalize().toFile();
+    }
+
+    /**
+     * File the AST of a source file is stored in.
+     */
+    static File storeOf(File source) {
+        return new File(source.getAbsoluteFile().getParentFile(), "." + source.getName() + SUFFIX);
+    }
+
+    /**
+     * Loads a stored AST.
+     * @param source Source file
+     * @param hash SHA-256 of the current content of the source file
+     * @return AST (null if no AST has been stored for this content)
+     */
+    static CompilationUnit load(File source, byte[] hash) {
+        File store = storeOf(source);
+        if (!store.exists()) return null;
+        try (FileChannel channel = FileChannel.open(store.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION || buffer.getInt() != FINGERPRINT) return null;
+            byte[] stored = new byte[hash.length];
+            buffer.get(stored);
+            if (!Arrays.equals(stored, hash)) return null;
+            return (CompilationUnit)read(buffer);
+        } catch (IOException | RuntimeException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Stores an AST (failures are ignored, e.g. for read-only directories).
+     * @param source Source file
+     * @param hash SHA-256 of the content the AST has been parsed from
+     * @param ast AST
+     */
+    static void store(File source, byte[] hash, CompilationUnit ast) {
+        File store = storeOf(source);
+        File tmp = null;
+        try {
+            tmp = File.createTempFile(store.getName(), ".tmp", store.getParentFile());
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp.toPath())))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(FINGERPRINT);
+                out.write(hash);
+                write(out, ast);
+            }
+            Files.move(tmp.toPath(), store.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException ex) {
+            if (tmp != null) tmp.delete();
+        }
+    }
+
+    /**
+     * Serializes a node (recursively).
+     */
+    private static void write(DataOutputStream out, Node node) throws IOException {
+        if (node == null) {
+            out.writeShort(-1);
+            return;
+        }
+        BaseNodeMetaModel type = node.getMetaModel();
+        out.writeShort(IDS.get(type));
+        Range range = node.getRange().orElse(null);
+        out.writeBoolean(range != null);
+        if (range != null) {
+            out.writeInt(range.begin.line);
+            out.writeInt(range.begin.column);
+            out.writeInt(range.end.line);
+            out.writeInt(range.end.column);
+        }
+        Layout layout = layout(type);
+        for (PropertyMetaModel p : layout.parameters) writeValue(out, p, p.getValue(node));
+        for (PropertyMetaModel p : layout.properties) writeValue(out, p, p.getValue(node));
+        write(out, node.getComment().orElse(null));
+        out.writeInt(node.getOrphanComments().size());
+        for (Comment orphan : node.getOrphanComments()) write(out, orphan);
+    }
+
+    private static void writeValue(DataOutputStream out, PropertyMetaModel p, Object value) throws IOException {
+        if (p.isNodeList()) {
+            NodeList<?> nodes = (NodeList<?>)value;
+            out.writeInt(nodes == null ? -1 : nodes.size());
+            if (nodes != null) for (Node n : nodes) write(out, n);
+        } else if (p.isNode()) {
+            write(out, (Node)value);
+        } else if (p.isEnumSet()) {
+            Collection<?> values = (Collection<?>)value;
+            out.writeInt(values.size());
+            for (Object v : values) out.writeShort(((Enum<?>)v).ordinal());
+        } else if (p.getType().isEnum()) {
+            out.writeShort(((Enum<?>)value).ordinal());
+        } else if (p.getType() == boolean.class || p.getType() == Boolean.class) {
+            out.writeBoolean((Boolean)value);
+        } else if (p.getType() == String.class) {
+            byte[] bytes = value == null ? null : ((String)value).getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes == null ? -1 : bytes.length);
+            if (bytes != null) out.write(bytes);
+        } else {
+            throw new IllegalStateException("Unsupported property " + p);
+        }
+    }
+
+    /**
+     * Deserializes a node (recursively).
+     */
+    private static Node read(ByteBuffer in) throws BufferUnderflowException {
+        int id = in.getShort();
+        if (id < 0) return null;
+        BaseNodeMetaModel type = TYPES.get(id);
+        Range range = null;
+        if (in.get() != 0) {
+            int line = in.getInt(), column = in.getInt();
+            range = new Range(new Position(line, column), new Position(in.getInt(), in.getInt()));
+        }
+        Layout layout = layout(type);
+        Object[] arguments = new Object[layout.parameters.size()];
+        for (int i = 0; i < arguments.length; i++) arguments[i] = readValue(in, layout.parameters.get(i));
+        Object[] properties = new Object[layout.properties.size()];
+        for (int i = 0; i < properties.length; i++) properties[i] = readValue(in, layout.properties.get(i));
+        try {
+            Node node = (Node)layout.constructor.newInstance(arguments);
+            for (int i = 0; i < properties.length; i++) layout.setters.get(i).invoke(node, properties[i]);
+            if (range != null) node.setRange(range);
+            Comment comment = (Comment)read(in);
+            if (comment != null) node.setComment(comment);
+            for (int orphans = in.getInt(); orphans > 0; orphans--) node.addOrphanComment((Comment)read(in));
+            return node;
+        } catch (ReflectiveOperationException ex) {
+            throw new IllegalStateException("Could not construct " + type, ex);
+        }
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static Object readValue(ByteBuffer in, PropertyMetaModel p) {
+        if (p.isNodeList()) {
+            int size = in.getInt();
+            if (size < 0) return null;
+            NodeList<Node> nodes = new NodeList<>();
+            for (int i = 0; i < size; i++) nodes.add(read(in));
+            return nodes;
+        }
+        if (p.isNode()) return read(in);
+        if (p.isEnumSet()) {
+            Class<Enum> enumType = (Class<Enum>)p.getType();
+            EnumSet values = EnumSet.noneOf(enumType);
+            for (int size = in.getInt(); size > 0; size--) values.add(enumType.getEnumConstants()[in.getShort()]);
+            return values;
+        }
+        if (p.getType().isEnum()) return p.getType().getEnumConstants()[in.getShort()];
+        if (p.getType() == boolean.class || p.getType() == Boolean.class) return in.get() != 0;
+        int length = in.getInt();
+        if (length < 0) return null;
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
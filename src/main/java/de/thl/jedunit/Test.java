@@ -15,4 +15,22 @@ import java.lang.annotation.Target;
 public @interface Test {
     double weight();
     String description();
+
+    /**
+     * Time budget for the whole test in milliseconds.
+     * Config.TEST_TIMEOUT applies if not set.
+     */
+    long timeout() default 0;
+
+    /**
+     * Time budget for every single check of the test in milliseconds.
+     * Config.CHECK_TIMEOUT applies if not set.
+     */
+    long checkTimeout() default 0;
+
+    /**
+     * Memory budget for every single check of the test in megabytes allocated.
+     * Config.CHECK_MEMORY applies if not set.
+     */
+    long checkMemory() default 0;
 }
\ No newline at end of file
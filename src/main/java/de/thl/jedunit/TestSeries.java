@@ -44,20 +44,21 @@ public class TestSeries<T> {
                 String expectedMsg = expected.apply(d);
                 int p = points.apply(d);
                 try {
-                    boolean success = matches.test(d);
-                    if (success) {
-                        this.evaluator.grading(p, expectedMsg, () -> success);
+                    String failedMsg = Watchdog.check(() -> matches.test(d) ? null : String.format("%s %s", expectedMsg, actual.apply(d)));
+                    if (failedMsg == null) {
+                        this.evaluator.grading(p, expectedMsg, true, null);
                     } else {
-                        String failedMsg = String.format("%s %s", expectedMsg, actual.apply(d));
-                        this.evaluator.grading(p, failedMsg, () -> success);
+                        this.evaluator.grading(p, failedMsg, false, null);
                     }
+                } catch (Watchdog.BudgetExceeded ex) {
+                    this.evaluator.grading(p, expectedMsg, false, ex);
                 } catch (Exception ex) {
                     String comment = String.format("%s but failed with exception: %s", expectedMsg, ex);
-                    this.evaluator.grading(p, comment, () -> false);
+                    this.evaluator.grading(p, comment, false, null);
                 }
             } catch (Exception ex) {
                 String comment = String.format("Test error: test data %s failed with exception: %s", d, ex);
-                this.evaluator.grading(0, comment, () -> false);
+                this.evaluator.grading(0, comment, false, null);
             }    
         }
     }
@@ -0,0 +1,449 @@
+package de.thl.jedunit;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Lightweight pre-scan of a Java source file (without parsing it).
+ *
+ * The scan reads the tokens of a file once and answers questions that many rules
+ * are about: imports, qualified references (like System.exit), tokens (like for or -&gt;),
+ * declared classes, fields, and methods.
+ * Rules can use a scan to decide whether a file is suspect (see Rule.isSuspect()).
+ * Files that are not suspect for any rule do not need to be traversed at all.
+ *
+ * Answers are conservative: a scan may report things that a parser would not
+ * (e.g. for unusual syntax), but it never misses anything a parser would find.
+ * Unicode escapes are translated before scanning (like a compiler does).
+ * Files with malformed unicode escapes or unbalanced brackets (obvious syntax errors)
+ * can not be scanned reliably (see isReliable()).
+ *
+ * @author Nane Kratzke
+ */
+public class TokenScan {
+
+    private static final Set<String> MODIFIERS = new HashSet<>(Arrays.asList(
+        "public", "protected", "private", "static", "final", "abstract",
+        "transient", "volatile", "synchronized", "native", "strictfp", "default"
+    ));
+
+    private final String raw;
+
+    /**
+     * Source code with translated unicode escapes.
+     */
+    private final String source;
+
+    private boolean reliable;
+
+    private final List<String> tokens = new ArrayList<>();
+
+    private final Set<String> distinct = new HashSet<>();
+
+    private final List<String> imports = new LinkedList<>();
+
+    private final List<String> references = new ArrayList<>();
+
+    /**
+     * Token positions of the references (same order as references).
+     */
+    private final List<Integer> positions = new ArrayList<>();
+
+    /**
+     * Tokens within the body of a method other than main(String[]) (see referencesOutsideMain()).
+     */
+    private final BitSet outsideMain = new BitSet();
+
+    private final List<Set<String>> fields = new LinkedList<>();
+
+    private final List<String> methods = new LinkedList<>();
+
+    private int classes = 0;
+
+    /**
+     * Scans Java source code.
+     * @param source Java source code
+     */
+    public TokenScan(String source) {
+        this.raw = source;
+        this.source = unescape(source);
+        this.reliable = this.source != null;
+        if (!this.reliable) return;
+        tokenize();
+        this.reliable = isBalanced();
+        this.distinct.addAll(this.tokens);
+        scanImportsAndReferences();
+        scanDeclarations();
+    }
+
+    /**
+     * Scans a Java source file.
+     * @param file Java source file
+     * @return Scan (null if the file can not be read or not be scanned reliably)
+     */
+    public static TokenScan of(File file) {
+        try {
+            TokenScan scan = new TokenScan(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+            return scan.isReliable() ? scan : null;
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Indicates whether the answers of this scan can be trusted
+     * (false for sources with malformed unicode escapes or unbalanced brackets).
+     */
+    public boolean isReliable() { return this.reliable; }
+
+    /**
+     * Returns the imported names (like java.util.List, java.util for java.util.*).
+     */
+    public List<String> getImports() { return Collections.unmodifiableList(this.imports); }
+
+    /**
+     * Checks whether the file contains a token (keyword, identifier, or operator like -&gt;).
+     * String and character literals are not considered.
+     */
+    public boolean contains(String token) { return this.distinct.contains(token); }
+
+    /**
+     * Checks whether the file references a qualified name that starts with a prefix
+     * (like System.exit or Solution.). Whitespace and comments between tokens are ignored.
+     */
+    public boolean references(String prefix) {
+        return this.references.stream().anyMatch(ref -> ref.startsWith(prefix));
+    }
+
+    /**
+     * Checks whether the file references a qualified name that starts with a prefix
+     * within a method other than void main(String[]) (including methods of local and anonymous classes).
+     * Only main methods declared exactly like void main(String[] args) are considered as main.
+     */
+    public boolean referencesOutsideMain(String prefix) {
+        for (int i = 0; i < this.references.size(); i++) {
+            if (this.outsideMain.get(this.positions.get(i)) && this.references.get(i).startsWith(prefix)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether the source code mentions a text anywhere (including comments and literals).
+     */
+    public boolean mentions(String text) {
+        return this.raw.contains(text) || this.source != null && this.source.contains(text);
+    }
+
+    /**
+     * Returns the number of declared classes and interfaces (including inner and local classes).
+     */
+    public int getDeclaredClasses() { return this.classes; }
+
+    /**
+     * Returns the modifiers of all declared fields (one set per field declaration).
+     */
+    public List<Set<String>> getFieldModifiers() { return Collections.unmodifiableList(this.fields); }
+
+    /**
+     * Returns the names of all declared methods and constructors.
+     */
+    public List<String> getMethodNames() { return Collections.unmodifiableList(this.methods); }
+
+    /**
+     * Translates unicode escapes (like \\u0041).
+     * @return Translated source code (null if an escape is malformed)
+     */
+    private static String unescape(String s) {
+        if (!s.contains("\\u")) return s;
+        StringBuilder result = new StringBuilder(s.length());
+        int backslashes = 0;
+        int i = 0;
+        while (i < s.length()) {
+            char c = s.charAt(i);
+            if (c == '\\' && backslashes % 2 == 0 && i + 1 < s.length() && s.charAt(i + 1) == 'u') {
+                int j = i + 1;
+                while (j < s.length() && s.charAt(j) == 'u') j++;
+                if (j + 4 > s.length()) return null;
+                try {
+                    result.append((char)Integer.parseInt(s.substring(j, j + 4), 16));
+                } catch (NumberFormatException ex) {
+                    return null;
+                }
+                backslashes = 0;
+                i = j + 4;
+                continue;
+            }
+            backslashes = c == '\\' ? backslashes + 1 : 0;
+            result.append(c);
+            i++;
+        }
+        return result.toString();
+    }
+
+    /**
+     * Splits the source code into tokens. Comments and whitespace are skipped,
+     * string and character literals are replaced by "" and ''.
+     */
+    private void tokenize() {
+        String s = this.source;
+        int i = 0;
+        while (i < s.length()) {
+            char c = s.charAt(i);
+            char next = i + 1 < s.length() ? s.charAt(i + 1) : 0;
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '/' && next == '/') {
+                while (i < s.length() && s.charAt(i) != '\n') i++;
+            } else if (c == '/' && next == '*') {
+                int end = s.indexOf("*/", i + 2);
+                i = end < 0 ? s.length() : end + 2;
+            } else if (c == '"' || c == '\'') {
+                for (i++; i < s.length() && s.charAt(i) != c && s.charAt(i) != '\n'; i++) {
+                    if (s.charAt(i) == '\\') i++;
+                }
+                i++;
+                this.tokens.add(c == '"' ? "\"\"" : "''");
+            } else if (Character.isJavaIdentifierStart(c) || Character.isDigit(c)) {
+                int start = i;
+                boolean number = Character.isDigit(c);
+                while (i < s.length() && (Character.isJavaIdentifierPart(s.charAt(i)) || number && s.charAt(i) == '.')) i++;
+                this.tokens.add(s.substring(start, i));
+            } else {
+                String op = s.startsWith("...", i) ? "..." : String.valueOf(c);
+                for (String o : Arrays.asList("->", "::", "++", "--")) if (s.startsWith(o, i) && op.length() == 1) op = o;
+                this.tokens.add(op);
+                i += op.length();
+            }
+        }
+    }
+
+    /**
+     * Checks whether all brackets are balanced.
+     */
+    private boolean isBalanced() {
+        StringBuilder open = new StringBuilder();
+        for (String t : this.tokens) {
+            int bracket = "([{".indexOf(t);
+            int closing = ")]}".indexOf(t);
+            if (t.length() != 1) continue;
+            if (bracket >= 0) open.append(t);
+            if (closing < 0) continue;
+            if (open.length() == 0 || open.charAt(open.length() - 1) != "([{".charAt(closing)) return false;
+            open.setLength(open.length() - 1);
+        }
+        return open.length() == 0;
+    }
+
+    private boolean isIdentifier(int i) {
+        return i >= 0 && i < this.tokens.size() && Character.isJavaIdentifierStart(this.tokens.get(i).charAt(0));
+    }
+
+    private String token(int i) {
+        return i >= 0 && i < this.tokens.size() ? this.tokens.get(i) : "";
+    }
+
+    /**
+     * Collects imports and qualified names (chains like a.b.c).
+     */
+    private void scanImportsAndReferences() {
+        for (int i = 0; i < this.tokens.size(); i++) {
+            if (!isIdentifier(i) || token(i - 1).equals(".")) continue;
+            StringBuilder chain = new StringBuilder(token(i));
+            int j = i + 1;
+            for (; token(j).equals(".") && (isIdentifier(j + 1) || token(j + 1).equals("*")); j += 2) {
+                chain.append('.').append(token(j + 1));
+            }
+            this.references.add(chain.toString());
+            this.positions.add(i);
+            if (token(i).equals("import")) {
+                int k = token(i + 1).equals("static") ? i + 2 : i + 1;
+                StringBuilder name = new StringBuilder(token(k));
+                for (k++; token(k).equals(".") && isIdentifier(k + 1); k += 2) name.append('.').append(token(k + 1));
+                this.imports.add(name.toString());
+            }
+        }
+    }
+
+    /**
+     * Brace that opens a type body (TYPE) or any other block (BLOCK).
+     */
+    private static class Brace {
+        final boolean type;
+        final boolean enumeration;
+
+        /**
+         * Brace is within the body of a method other than main(String[]).
+         */
+        final boolean outsideMain;
+
+        /**
+         * Tokens of the current member (type bodies only).
+         */
+        final List<String> member = new ArrayList<>();
+
+        /**
+         * Enum constants are declared before the first semicolon of an enum.
+         */
+        boolean constants;
+
+        Brace(boolean type, boolean enumeration, boolean outsideMain) {
+            this.type = type;
+            this.enumeration = enumeration;
+            this.outsideMain = outsideMain;
+            this.constants = enumeration;
+        }
+    }
+
+    /**
+     * Collects declared classes, fields, and methods.
+     * Tracks which braces open type bodies (classes, interfaces, enums,
+     * anonymous classes, enum constant bodies) and splits type bodies into members.
+     */
+    private void scanDeclarations() {
+        LinkedList<Brace> braces = new LinkedList<>();
+        LinkedList<Boolean> parens = new LinkedList<>();
+        boolean header = false;
+        boolean enumeration = false;
+        boolean anonymous = false;
+        for (int i = 0; i < this.tokens.size(); i++) {
+            String t = token(i);
+            Brace current = braces.peek();
+            if (current != null && current.outsideMain) this.outsideMain.set(i);
+            boolean declaration = !token(i - 1).equals(".");
+            if (declaration && (t.equals("class") || t.equals("interface") || t.equals("enum"))) {
+                if (!t.equals("enum") && !token(i - 1).equals("@")) this.classes++;
+                header = true;
+                enumeration = t.equals("enum");
+            }
+            if (t.equals("{")) {
+                boolean type = header || anonymous && token(i - 1).equals(")") || current != null && current.constants;
+                boolean outside = current != null && current.outsideMain;
+                if (current != null && current.type && !current.constants && isDeclaration(current.member)) {
+                    outside |= member(current.member, true);
+                }
+                braces.push(new Brace(type, type && enumeration, outside));
+                header = false;
+                enumeration = false;
+                continue;
+            }
+            if (t.equals("}")) {
+                braces.poll();
+                header = false;
+                continue;
+            }
+            if (t.equals("(")) parens.push(isCreation(i));
+            if (t.equals(")")) anonymous = !parens.isEmpty() && parens.pop();
+            if (t.equals(";")) header = false;
+            if (current == null || !current.type) continue;
+            if (t.equals(";") && current.constants) {
+                current.constants = false;
+                current.member.clear();
+            } else if (t.equals(";")) {
+                member(current.member, false);
+            } else if (!current.constants) {
+                current.member.add(t);
+            }
+        }
+    }
+
+    /**
+     * Checks whether a brace opens the body of a member
+     * (and not an initializer of a field or an annotation argument).
+     */
+    private static boolean isDeclaration(List<String> member) {
+        int depth = 0;
+        for (String t : member) {
+            if (t.equals("(")) depth++;
+            if (t.equals(")")) depth--;
+            if (t.equals("=") && depth == 0) return false;
+        }
+        return depth == 0;
+    }
+
+    /**
+     * Checks whether a parenthesis belongs to an object creation (new a.B&lt;C&gt;().
+     */
+    private boolean isCreation(int paren) {
+        for (int i = paren - 1; i >= 0; i--) {
+            String t = token(i);
+            if (t.equals("new")) return true;
+            if (!(isIdentifier(i) || Arrays.asList(".", "<", ">", ",", "?", "[", "]", "&", "@").contains(t))) return false;
+        }
+        return false;
+    }
+
+    /**
+     * Analyzes a member of a type body.
+     * @param member Tokens of the member (consumed)
+     * @param body Member ends with a body (method, constructor, type, initializer)
+     * @return true, if the member is a method or constructor other than void main(String[] args)
+     */
+    private boolean member(List<String> member, boolean body) {
+        List<String> tokens = withoutAnnotations(member);
+        member.clear();
+        if (tokens.isEmpty()) return false;
+        int paren = tokens.indexOf("(");
+        int assign = tokens.indexOf("=");
+        boolean type = false;
+        for (int i = 0; i < tokens.size(); i++) {
+            boolean keyword = Arrays.asList("class", "interface", "enum").contains(tokens.get(i));
+            type |= keyword && (i == 0 || !tokens.get(i - 1).equals("."));
+        }
+        if (paren > 0 && (assign < 0 || paren < assign) && !type) {
+            this.methods.add(tokens.get(paren - 1));
+            return !isMain(tokens);
+        } else if (!body && !type) {
+            Set<String> modifiers = new HashSet<>();
+            for (String t : assign < 0 ? tokens : tokens.subList(0, assign)) if (MODIFIERS.contains(t)) modifiers.add(t);
+            this.fields.add(modifiers);
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether the tokens of a method (without annotations) declare exactly void main(String[] args).
+     */
+    private static boolean isMain(List<String> tokens) {
+        int i = 0;
+        while (i < tokens.size() && MODIFIERS.contains(tokens.get(i))) i++;
+        List<String> signature = tokens.subList(i, tokens.size());
+        return signature.size() == 8
+            && signature.subList(0, 6).equals(Arrays.asList("void", "main", "(", "String", "[", "]"))
+            && Character.isJavaIdentifierStart(signature.get(6).charAt(0))
+            && signature.get(7).equals(")");
+    }
+
+    /**
+     * Removes annotations (like @SuppressWarnings("unchecked")) from the tokens of a member.
+     */
+    private static List<String> withoutAnnotations(List<String> tokens) {
+        List<String> result = new ArrayList<>();
+        int i = 0;
+        while (i < tokens.size()) {
+            if (!tokens.get(i).equals("@") || i + 1 < tokens.size() && tokens.get(i + 1).equals("interface")) {
+                result.add(tokens.get(i++));
+                continue;
+            }
+            for (i += 2; i + 1 < tokens.size() && tokens.get(i).equals("."); i += 2);
+            if (i < tokens.size() && tokens.get(i).equals("(")) {
+                int depth = 0;
+                do {
+                    if (tokens.get(i).equals("(")) depth++;
+                    if (tokens.get(i).equals(")")) depth--;
+                    i++;
+                } while (i < tokens.size() && depth > 0);
+            }
+        }
+        return result;
+    }
+}
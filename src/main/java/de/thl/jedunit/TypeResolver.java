@@ -0,0 +1,272 @@
+package de.thl.jedunit;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.github.javaparser.JavaParser;
+import com.github.javaparser.ast.CompilationUnit;
+import com.github.javaparser.ast.Node;
+import com.github.javaparser.ast.body.FieldDeclaration;
+import com.github.javaparser.ast.body.TypeDeclaration;
+import com.github.javaparser.ast.type.ArrayType;
+import com.github.javaparser.ast.type.ClassOrInterfaceType;
+import com.github.javaparser.ast.type.Type;
+import com.github.javaparser.resolution.declarations.ResolvedReferenceTypeDeclaration;
+import com.github.javaparser.resolution.types.ResolvedType;
+import com.github.javaparser.symbolsolver.javaparsermodel.JavaParserFacade;
+import com.github.javaparser.symbolsolver.model.resolution.SymbolReference;
+import com.github.javaparser.symbolsolver.model.resolution.TypeSolver;
+import com.github.javaparser.symbolsolver.resolution.typesolvers.ReflectionTypeSolver;
+
+/**
+ * Resolves types of parsed source files via the JavaParser symbol solver
+ * (see Config.RESOLVE_TYPES). Inspections can use it to check types
+ * by their qualified names instead of their textual representation, e.g.
+ *
+ *   ast.select(PARAMETER).filter(p -> TypeResolver.is(p.getType(), HashMap.class))
+ *
+ * matches java.util.HashMap&lt;K, V&gt; and imported HashMaps, but not classes named
+ * HashMapHelper or a HashMap class of the submission.
+ *
+ * Types are resolved against the types declared in all Java files of the directory
+ * of the file (using the cached ASTs, see SyntaxTree) and against the JDK.
+ * Other files of the directory are only parsed if they might declare a resolved type.
+ * JDK types are resolved via reflection once and cached for all evaluations.
+ * Resolution is prepared in the background when an evaluation starts (see prewarm()),
+ * so that resolving types of a submission takes milliseconds.
+ *
+ * Resolutions are serialized (the symbol solver is not thread-safe).
+ *
+ * @author Nane Kratzke
+ */
+public class TypeResolver {
+
+    /**
+     * JDK types that are resolved in advance (see prewarm()).
+     */
+    private static final List<String> WARM_TYPES = Arrays.asList(
+        "java.lang.Object", "java.lang.String", "java.lang.Integer", "java.lang.Character",
+        "java.util.Collection", "java.util.List", "java.util.Map", "java.util.Set",
+        "java.util.ArrayList", "java.util.LinkedList", "java.util.HashMap", "java.util.TreeMap", "java.util.HashSet"
+    );
+
+    /**
+     * Resolves JDK types via reflection and caches them for all evaluations.
+     */
+    private static class JdkTypes implements TypeSolver {
+
+        private final TypeSolver reflection = new ReflectionTypeSolver(true);
+
+        private final Map<String, SymbolReference<ResolvedReferenceTypeDeclaration>> cache = new ConcurrentHashMap<>();
+
+        JdkTypes() {
+            // Types resolved by reflection resolve their ancestors via this cache
+            this.reflection.setParent(this);
+        }
+
+        @Override
+        public TypeSolver getParent() {
+            return null;
+        }
+
+        @Override
+        public void setParent(TypeSolver parent) {
+            // Shared by all evaluations, so it is never part of another solver
+        }
+
+        @Override
+        public SymbolReference<ResolvedReferenceTypeDeclaration> tryToSolveType(String name) {
+            return this.cache.computeIfAbsent(name, this.reflection::tryToSolveType);
+        }
+    }
+
+    private static final JdkTypes JDK = new JdkTypes();
+
+    /**
+     * Type declarations (conservative, comments and literals are not excluded).
+     */
+    private static final Pattern DECLARATION = Pattern.compile("(?:class|interface|enum)\\s+([\\w$]+)");
+
+    /**
+     * Resolves types declared in the Java files of a directory (and JDK types).
+     * Other files of the directory are only parsed if they might declare a type that is resolved.
+     */
+    private static class DirectoryTypes implements TypeSolver {
+
+        /**
+         * Compilation units the types have been collected from.
+         */
+        private final Set<CompilationUnit> units = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        /**
+         * Declared types by qualified name (nested types like Outer.Inner).
+         */
+        private final Map<String, TypeDeclaration<?>> types = new HashMap<>();
+
+        /**
+         * Files of the directory that have not been parsed yet
+         * with the simple names of the types they might declare.
+         */
+        private final Map<File, Set<String>> pending = new HashMap<>();
+
+        /**
+         * @param unit Compilation unit to resolve types for
+         */
+        DirectoryTypes(CompilationUnit unit) {
+            add(unit);
+            Path file = unit.getStorage().map(storage -> storage.getPath().toAbsolutePath()).orElse(null);
+            File[] sources = file == null ? null : file.getParent().toFile().listFiles((dir, name) -> name.endsWith(".java"));
+            if (sources == null) return;
+            for (File source : sources) {
+                if (source.toPath().toAbsolutePath().equals(file)) continue;
+                try {
+                    Set<String> declared = new HashSet<>();
+                    Matcher m = DECLARATION.matcher(new String(Files.readAllBytes(source.toPath()), StandardCharsets.UTF_8));
+                    while (m.find()) declared.add(m.group(1));
+                    this.pending.put(source, declared);
+                } catch (IOException ex) {
+                    // Types of unreadable files can not be resolved
+                }
+            }
+        }
+
+        /**
+         * Parses all pending files that might declare a type (with the same simple name).
+         */
+        private void parsePending(String name) {
+            String simple = name.substring(name.lastIndexOf('.') + 1);
+            for (Iterator<Map.Entry<File, Set<String>>> it = this.pending.entrySet().iterator(); it.hasNext();) {
+                Map.Entry<File, Set<String>> source = it.next();
+                if (!source.getValue().contains(simple)) continue;
+                it.remove();
+                SyntaxTree tree = SyntaxTree.of(source.getKey().getAbsolutePath());
+                if (tree != null) add(tree.getCompilationUnit());
+            }
+        }
+
+        private void add(CompilationUnit unit) {
+            this.units.add(unit);
+            String pkg = unit.getPackageDeclaration().map(p -> p.getNameAsString() + ".").orElse("");
+            for (TypeDeclaration<?> type : unit.findAll(TypeDeclaration.class)) {
+                StringBuilder name = new StringBuilder(type.getNameAsString());
+                for (Node n = type.getParentNode().orElse(null); n instanceof TypeDeclaration; n = n.getParentNode().orElse(null)) {
+                    name.insert(0, ((TypeDeclaration<?>)n).getNameAsString() + ".");
+                }
+                this.types.putIfAbsent(pkg + name, type);
+            }
+        }
+
+        boolean contains(CompilationUnit unit) {
+            return this.units.contains(unit);
+        }
+
+        @Override
+        public TypeSolver getParent() {
+            return null;
+        }
+
+        @Override
+        public void setParent(TypeSolver parent) {
+            throw new UnsupportedOperationException("Directory types are not part of other solvers");
+        }
+
+        @Override
+        public SymbolReference<ResolvedReferenceTypeDeclaration> tryToSolveType(String name) {
+            TypeDeclaration<?> type = this.types.get(name);
+            if (type == null && !this.pending.isEmpty()) {
+                parsePending(name);
+                type = this.types.get(name);
+            }
+            if (type == null) return JDK.tryToSolveType(name);
+            return SymbolReference.solved(JavaParserFacade.get(this).getTypeDeclaration(type));
+        }
+    }
+
+    /**
+     * Solver of the directory types were resolved for most recently.
+     */
+    private static DirectoryTypes current = null;
+
+    private static Thread prewarming = null;
+
+    /**
+     * Starts to load the symbol solver and to resolve common JDK types in the background
+     * (only once per process).
+     */
+    public static synchronized void prewarm() {
+        if (prewarming != null) return;
+        prewarming = new Thread(() -> {
+            WARM_TYPES.forEach(JDK::tryToSolveType);
+            CompilationUnit warm = JavaParser.parse("import java.util.*; class Warm { Map<String, List<Integer>> m = new HashMap<>(); }");
+            for (FieldDeclaration field : warm.findAll(FieldDeclaration.class)) resolve(field.getElementType());
+        }, "JEdUnit type resolution");
+        prewarming.setDaemon(true);
+        prewarming.start();
+    }
+
+    /**
+     * Resolves a type.
+     * @param type Type (of a parsed file)
+     * @return Resolved type (empty if the type can not be resolved or Config.RESOLVE_TYPES is not set)
+     */
+    public static Optional<ResolvedType> resolve(Type type) {
+        if (!Config.RESOLVE_TYPES) return Optional.empty();
+        Optional<CompilationUnit> unit = type.findCompilationUnit();
+        if (!unit.isPresent()) return Optional.empty();
+        synchronized (TypeResolver.class) {
+            try {
+                if (current == null || !current.contains(unit.get())) {
+                    // Facades of former directories keep their ASTs
+                    JavaParserFacade.clearInstances();
+                    current = new DirectoryTypes(unit.get());
+                }
+                return Optional.of(JavaParserFacade.get(current).convertToUsage(type));
+            } catch (RuntimeException ex) {
+                return Optional.empty();
+            }
+        }
+    }
+
+    /**
+     * Checks whether a type (or the element type of an array type) is a class.
+     * Types that can not be resolved are compared by their simple names.
+     * @param type Type (of a parsed file)
+     * @param clazz Class
+     * @return true, if the type is the class
+     */
+    public static boolean is(Type type, Class<?> clazz) {
+        Type element = type instanceof ArrayType ? type.getElementType() : type;
+        if (!(element instanceof ClassOrInterfaceType)) return false;
+        Optional<ResolvedType> resolved = resolve(element);
+        if (resolved.isPresent()) {
+            return resolved.get().isReferenceType()
+                && resolved.get().asReferenceType().getQualifiedName().equals(clazz.getCanonicalName());
+        }
+        return ((ClassOrInterfaceType)element).getNameAsString().equals(clazz.getSimpleName());
+    }
+
+    /**
+     * Forgets the types of the most recently resolved directory
+     * (must be called if files of this directory have been changed, see SyntaxTree.invalidate()).
+     */
+    static synchronized void invalidate() {
+        current = null;
+        JavaParserFacade.clearInstances();
+    }
+}
@@ -0,0 +1,234 @@
+package de.thl.jedunit;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Executes tests and checks under a time and memory budget.
+ *
+ * Supervised tasks run on worker threads and record their effects in a ledger.
+ * If a task stays within its budget, its effects are replayed on the calling thread.
+ * If it runs out of time or allocates more memory than allowed, it is interrupted
+ * and its effects are discarded.
+ * A worker that ignores the interruption is quarantined: it is never reused, its effects
+ * (including console output) are discarded, and it gets the minimum priority.
+ * It is not stopped, though. Thread priorities are only hints (Linux ignores them),
+ * so a runaway check keeps consuming a core until the JVM exits.
+ *
+ * Memory is accounted as the bytes a worker allocates while it executes a task
+ * (as reported by the thread allocation accounting of the JVM).
+ * Memory budgets are ignored if the JVM does not provide this accounting.
+ *
+ * @author Nane Kratzke
+ */
+class Watchdog {
+
+    /**
+     * Time (in milliseconds) and memory (allocated bytes) a task may consume.
+     * A value of 0 means unlimited.
+     */
+    static class Budget {
+
+        static final Budget UNLIMITED = new Budget(0, 0);
+
+        final long time;
+        final long memory;
+
+        Budget(long time, long memory) {
+            this.time = time;
+            this.memory = memory;
+        }
+
+        boolean isUnlimited() {
+            return this.time <= 0 && (this.memory <= 0 || ALLOCATIONS == null);
+        }
+    }
+
+    /**
+     * Raised if a supervised task exceeds its budget.
+     */
+    static class BudgetExceeded extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        BudgetExceeded(String reason) {
+            super(reason);
+        }
+
+        @Override
+        public String toString() {
+            return this.getMessage();
+        }
+    }
+
+    /**
+     * Time an aborted worker gets to react on its interruption (in milliseconds).
+     */
+    private static final long GRACE = 100;
+
+    /**
+     * Interval in which the allocations of a worker are checked (in milliseconds).
+     */
+    private static final long POLL = 10;
+
+    /**
+     * Thread allocation accounting of the JVM (null if not supported).
+     */
+    private static final com.sun.management.ThreadMXBean ALLOCATIONS = allocationAccounting();
+
+    /**
+     * Budget for checks of the test running on the current thread.
+     */
+    private static final ThreadLocal<Budget> CHECK_BUDGET = ThreadLocal.withInitial(() -> Budget.UNLIMITED);
+
+    private static final ExecutorService WORKERS = Executors.newCachedThreadPool(task -> {
+        Thread worker = new Thread(task, "JEdUnit watchdog");
+        worker.setDaemon(true);
+        worker.setContextClassLoader(Watchdog.class.getClassLoader());
+        return worker;
+    });
+
+    private static com.sun.management.ThreadMXBean allocationAccounting() {
+        try {
+            java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            if (!(threads instanceof com.sun.management.ThreadMXBean)) return null;
+            com.sun.management.ThreadMXBean accounting = (com.sun.management.ThreadMXBean)threads;
+            if (!accounting.isThreadAllocatedMemorySupported()) return null;
+            if (!accounting.isThreadAllocatedMemoryEnabled()) accounting.setThreadAllocatedMemoryEnabled(true);
+            return accounting;
+        } catch (LinkageError | RuntimeException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Executes a test under a time budget.
+     * @param task Test
+     * @param budget Time budget for the whole test in milliseconds (0: unlimited)
+     * @param checkBudget Budget for every check of the test
+     * @return Result of the test
+     * @throws BudgetExceeded if the test runs out of time
+     * @throws Exception thrown by the test
+     */
+    static <T> T test(Callable<T> task, long budget, Budget checkBudget) throws Exception {
+        Budget previous = CHECK_BUDGET.get();
+        CHECK_BUDGET.set(checkBudget);
+        try {
+            return call(task, new Budget(budget, 0), checkBudget);
+        } finally {
+            CHECK_BUDGET.set(previous);
+        }
+    }
+
+    /**
+     * Executes a check under the check budget of the running test.
+     * @param task Check
+     * @return Result of the check
+     * @throws BudgetExceeded if the check exceeds its budget
+     * @throws Exception thrown by the check
+     */
+    static <T> T check(Callable<T> task) throws Exception {
+        return call(task, CHECK_BUDGET.get(), Budget.UNLIMITED);
+    }
+
+    /**
+     * Executes a task on a supervised worker.
+     * @param task Task
+     * @param budget Budget of the task (an unlimited task is executed on the calling thread)
+     * @param checkBudget Budget for checks within the task
+     */
+    private static <T> T call(Callable<T> task, Budget budget, Budget checkBudget) throws Exception {
+        if (budget.isUnlimited()) return task.call();
+
+        PrintStream console = System.out;
+        Ledger.recordConsole();
+        try {
+            Ledger ledger = new Ledger();
+            AtomicReference<T> result = new AtomicReference<>();
+            AtomicReference<Thread> worker = new AtomicReference<>();
+            AtomicLong allocatedBefore = new AtomicLong(-1);
+            CountDownLatch finished = new CountDownLatch(1);
+            ClassLoader context = Thread.currentThread().getContextClassLoader();
+            Random random = DSL.random();
+            Future<?> execution = WORKERS.submit(() -> {
+                worker.set(Thread.currentThread());
+                allocatedBefore.set(allocated(Thread.currentThread()));
+                Thread.currentThread().setContextClassLoader(context);
+                CHECK_BUDGET.set(checkBudget);
+                DSL.random(random);
+                try {
+                    ledger.execute(() -> {
+                        result.set(task.call());
+                        return null;
+                    });
+                } finally {
+                    // Idle workers must not keep the class loader of a submission reachable
+                    Thread.currentThread().setContextClassLoader(Watchdog.class.getClassLoader());
+                    CHECK_BUDGET.remove();
+                    DSL.random(null);
+                    finished.countDown();
+                    Thread.interrupted();
+                }
+            });
+
+            boolean accounting = budget.memory > 0 && ALLOCATIONS != null;
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(budget.time);
+            while (true) {
+                long remaining = budget.time > 0 ? TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()) : Long.MAX_VALUE;
+                try {
+                    execution.get(accounting ? Math.min(POLL, remaining) : remaining, TimeUnit.MILLISECONDS);
+                    break;
+                } catch (TimeoutException ex) {
+                    long before = allocatedBefore.get();
+                    long allocated = before < 0 ? 0 : allocated(worker.get()) - before;
+                    if (accounting && allocated > budget.memory) {
+                        abort(execution, ledger, worker.get(), finished);
+                        throw new BudgetExceeded(String.format("allocation of %d MB (budget %d MB)", allocated >> 20, budget.memory >> 20));
+                    }
+                    if (budget.time > 0 && deadline - System.nanoTime() <= 0) {
+                        abort(execution, ledger, worker.get(), finished);
+                        throw new BudgetExceeded("timeout");
+                    }
+                } catch (ExecutionException ex) {
+                    if (ex.getCause() instanceof Error) throw (Error)ex.getCause();
+                    throw (Exception)ex.getCause();
+                }
+            }
+            ledger.replay();
+            return result.get();
+        } finally {
+            System.setOut(console);
+        }
+    }
+
+    /**
+     * Bytes a thread has allocated since it was started.
+     */
+    private static long allocated(Thread thread) {
+        if (ALLOCATIONS == null || thread == null) return 0;
+        return ALLOCATIONS.getThreadAllocatedBytes(thread.getId());
+    }
+
+    /**
+     * Aborts a task that exceeded its budget. Its recorded effects are discarded.
+     * Its worker is interrupted and quarantined if it does not react on the interruption
+     * (the worker keeps running, see class comment).
+     */
+    private static void abort(Future<?> execution, Ledger ledger, Thread worker, CountDownLatch finished) throws InterruptedException {
+        ledger.close();
+        execution.cancel(true);
+        if (finished.await(GRACE, TimeUnit.MILLISECONDS) || worker == null) return;
+        worker.setPriority(Thread.MIN_PRIORITY);
+        worker.setName("JEdUnit quarantine");
+    }
+}
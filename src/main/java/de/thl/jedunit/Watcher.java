@@ -0,0 +1,194 @@
+package de.thl.jedunit;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+
+/**
+ * Watches an evaluation directory and evaluates it again whenever a file is saved.
+ * Helps instructors to write checks and to debug submissions
+ * without running the complete VPL pipeline after every edit.
+ *
+ *   java -cp ".:*" de.thl.jedunit.CLI watch [directory]
+ *
+ * The directory must be prepared like a VPL evaluation directory
+ * (Checks.java, Solution.java, submission files, optionally checkstyle.log).
+ * Checkstyle is not run, an existing checkstyle.log is evaluated.
+ *
+ * Everything is kept in memory between evaluations: compiled classes
+ * (sources are only compiled again if a Java file has changed),
+ * parsed files (only changed files are parsed again),
+ * and the ledgers of inspections and tests (only inspections and tests
+ * that depend on changed files are executed again, see LedgerCache).
+ * All comments and the grade are printed after every evaluation.
+ *
+ * @author Nane Kratzke
+ */
+public class Watcher {
+
+    /**
+     * Changes within this time (in milliseconds) are evaluated together
+     * (editors often write a file in several steps).
+     */
+    private static final long QUIET = 100;
+
+    private final File directory;
+
+    private final SourceCompiler compiler = new SourceCompiler();
+
+    private final LedgerCache ledgers = new LedgerCache();
+
+    /**
+     * Class loader of the last successful compilation (null if sources have to be compiled).
+     */
+    private ClassLoader classes = null;
+
+    /**
+     * Console output of the evaluations (one stream for all evaluations,
+     * because kept ledgers replay console output to the stream they have been recorded for).
+     */
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+    private final PrintStream console;
+
+    /**
+     * Creates a watcher.
+     * @param directory Evaluation directory
+     */
+    public Watcher(File directory) {
+        this.directory = directory.getAbsoluteFile();
+        try {
+            this.console = new PrintStream(this.output, true, "UTF-8");
+        } catch (UnsupportedEncodingException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Checks whether a changed file can affect the evaluation.
+     * Stored syntax trees (see SyntaxTreeStore) and other hidden files are ignored.
+     */
+    private static boolean isRelevant(String file) {
+        return !file.startsWith(".") && (file.endsWith(".java") || file.equals("checkstyle.log"));
+    }
+
+    /**
+     * Evaluates the directory.
+     * @param changed Files changed since the last evaluation
+     * @return Report (comments and grade)
+     */
+    public synchronized String evaluate(Collection<String> changed) {
+        long start = System.currentTimeMillis();
+        for (String file : changed) SyntaxTree.invalidate(new File(this.directory, file).getAbsolutePath());
+        if (changed.stream().anyMatch(file -> file.endsWith(".java"))) this.classes = null;
+
+        StringBuilder report = new StringBuilder();
+        PrintStream stdout = System.out;
+        Thread current = Thread.currentThread();
+        ClassLoader context = current.getContextClassLoader();
+        boolean hosted = Evaluator.HOSTED;
+        Constraints check = null;
+        this.output.reset();
+        try {
+            System.setOut(this.console);
+            Evaluator.HOSTED = true;
+            Evaluator.LEDGERS = this.ledgers;
+            this.ledgers.start();
+            Evaluator.prepare(this.directory);
+            if (this.classes == null) {
+                Map<String, byte[]> compiled = this.compiler.compile(this.directory);
+                this.classes = new MemoryClassLoader(compiled, Watcher.class.getClassLoader());
+            }
+            current.setContextClassLoader(this.classes);
+            check = (Constraints)this.classes.loadClass("Checks").getDeclaredConstructor().newInstance();
+            Evaluator.evaluate(check);
+        } catch (Evaluator.Abort ex) {
+            // Evaluation has already been graded by abortOn()
+        } catch (SourceCompiler.CompilationError ex) {
+            report.append(ex.getMessage()).append("\n");
+        } catch (IOException ex) {
+            report.append("Could not evaluate " + this.directory + ": " + ex).append("\n");
+        } catch (Exception | LinkageError ex) {
+            DSL.comment("Severe error: " + ex);
+        } finally {
+            System.setOut(stdout);
+            current.setContextClassLoader(context);
+            Evaluator.HOSTED = hosted;
+            Evaluator.LEDGERS = null;
+        }
+        for (int i = 0; i < DSL.ja.length(); i++) {
+            report.append(((JSONObject)DSL.ja.get(i)).optString("output")).append("\n");
+        }
+        report.append(String.format("Grade :=>> %d (%d ms, %d of %d inspections and tests replayed)%n",
+            check == null ? 0 : check.getPoints(),
+            System.currentTimeMillis() - start,
+            this.ledgers.getReplayed(),
+            this.ledgers.getReplayed() + this.ledgers.getExecuted()
+        ));
+        return report.toString();
+    }
+
+    /**
+     * Evaluates the directory and evaluates it again on every change (until the thread is interrupted).
+     * @param out Stream to print reports to
+     */
+    public void watch(PrintStream out) throws IOException, InterruptedException {
+        try (WatchService service = FileSystems.getDefault().newWatchService()) {
+            this.directory.toPath().register(service, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+            out.print(evaluate(Arrays.asList(this.directory.list())));
+            out.println("Watching " + this.directory + " (stop with Ctrl-C)");
+            while (true) {
+                Set<String> changed = new TreeSet<>();
+                for (WatchKey key = service.take(); key != null; key = service.poll(QUIET, TimeUnit.MILLISECONDS)) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == OVERFLOW) changed.addAll(Arrays.asList(this.directory.list()));
+                        else changed.add(((Path)event.context()).toString());
+                    }
+                    key.reset();
+                }
+                changed.removeIf(file -> !isRelevant(file));
+                if (changed.isEmpty()) continue;
+                out.println("Changed: " + String.join(", ", changed));
+                out.print(evaluate(changed));
+            }
+        }
+    }
+
+    /**
+     * Watches an evaluation directory.
+     * @param args optional directory (default: working directory)
+     */
+    public static void main(String[] args) {
+        File dir = new File(args.length > 0 ? args[0] : System.getProperty("user.dir"));
+        if (!new File(dir, "Checks.java").exists()) {
+            System.err.println("Usage: watch [<dir-with-Checks.java>]");
+            System.exit(1);
+        }
+        try {
+            new Watcher(dir).watch(System.out);
+        } catch (Exception ex) {
+            System.err.println("Watching failed: " + ex);
+            System.exit(1);
+        }
+    }
+}
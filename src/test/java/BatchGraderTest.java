@@ -0,0 +1,89 @@
+import static de.thl.jedunit.DSL.s;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.thl.jedunit.BatchGrader;
+
+public class BatchGraderTest {
+
+    private File dir;
+
+    private void copy(String resource, File submission, String file) throws Exception {
+        try (InputStream in = BatchGraderTest.class.getResourceAsStream("/" + resource)) {
+            Files.copy(in, new File(submission, file).toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private void delete(File f) {
+        if (f.isDirectory()) Stream.of(f.listFiles()).forEach(file -> delete(file));
+        f.delete();
+    }
+
+    @Before public void createBatch() throws Exception {
+        this.dir = new File(s("/tmp/test-[a-z]{5}-[0-9]{3}"));
+        for (String name : new String[] { "alice", "bob" }) {
+            File submission = new File(this.dir, name);
+            submission.mkdirs();
+            copy("Main.java.template", submission, "Main.java");
+            copy("Solution.java.template", submission, "Solution.java");
+            copy("Checks.java.template", submission, "Checks.java");
+            new File(submission, "checkstyle.log").createNewFile();
+        }
+    }
+
+    @After public void removeBatch() {
+        delete(this.dir);
+    }
+
+    @Test public void testBatch() throws Exception {
+        List<BatchGrader.Result> results = new BatchGrader(2).grade(this.dir);
+        assertEquals("All submissions graded", 2, results.size());
+        assertEquals("Results ordered by submission", "alice", results.get(0).submission);
+        assertEquals("Results ordered by submission", "bob", results.get(1).submission);
+        assertTrue("Comments collected", results.get(0).comments.length() > 0);
+
+        File summary = new File(this.dir, "grades.json");
+        BatchGrader.write(results, summary);
+        String json = new String(Files.readAllBytes(summary.toPath()), "UTF-8");
+        assertTrue("Summary contains submissions", json.contains("\"alice\"") && json.contains("\"bob\""));
+    }
+
+    @Test public void testTimeout() throws Exception {
+        List<BatchGrader.Result> results = new BatchGrader(1, 1).grade(this.dir);
+        assertEquals("Submissions that run out of time are graded", 2, results.size());
+        for (BatchGrader.Result r : results) {
+            assertEquals(0, r.grade);
+            assertTrue(r.comments.toString(), r.comments.toString().contains("did not respond"));
+        }
+    }
+
+    @Test public void testMalformedOutput() throws Exception {
+        String main = String.join("\n",
+            "class Main {",
+            "    public static int countChars(char c, String s) {",
+            "        System.out.println(\"Grade :=>> x\");",
+            "        System.out.println(\"Comments :=>> [{\");",
+            "        return -1;",
+            "    }",
+            "}"
+        );
+        Files.write(new File(new File(this.dir, "alice"), "Main.java").toPath(), main.getBytes("UTF-8"));
+        List<BatchGrader.Result> results = new BatchGrader(1).grade(this.dir);
+        assertEquals("Output of a submission does not abort the batch", 2, results.size());
+        BatchGrader.Result alice = results.get(0);
+        assertTrue("Output of the submission is part of the response", alice.output.contains("Grade :=>> x"));
+        assertTrue("Grade is taken from the trailer", alice.comments.toString().contains("Finished"));
+        assertEquals("Grade is taken from the trailer", results.get(1).grade, alice.grade);
+    }
+}
@@ -0,0 +1,63 @@
+import static de.thl.jedunit.DSL.s;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.thl.jedunit.CohortQuery;
+
+public class CohortQueryTest {
+
+    private File dir;
+
+    private void write(String submission, String file, String code) throws Exception {
+        File f = new File(new File(this.dir, submission), file);
+        f.getParentFile().mkdirs();
+        Files.write(f.toPath(), code.getBytes("UTF-8"));
+    }
+
+    private void delete(File f) {
+        if (f.isDirectory()) Stream.of(f.listFiles()).forEach(file -> delete(file));
+        f.delete();
+    }
+
+    @Before public void createBatch() throws Exception {
+        this.dir = new File(s("/tmp/test-[a-z]{5}-[0-9]{3}"));
+        write("alice", "Main.java", "class Main {\n    public static void main(String[] args) {\n        System.exit(0);\n    }\n}");
+        write("alice", "Util.java", "class Util {\n    private int x;\n}");
+        write("bob", "Main.java", "class Main {\n    public static void main(String[] args) {\n    }\n}");
+        write("bob", "src/Exit.java", "class Exit {\n    void exit() { System.exit(1); }\n    void quit() { exit(); }\n}");
+        write("carol", "Main.java", "class Main {");
+        write("carol", "Solution.java", "class Solution {}");
+    }
+
+    @After public void removeBatch() {
+        delete(this.dir);
+    }
+
+    @Test public void testQuery() throws Exception {
+        List<CohortQuery.Match> matches = new LinkedList<>();
+        CohortQuery.Summary summary = new CohortQuery("method:has(MethodCallExpr[name=exit])", 2).run(this.dir, matches::add);
+        assertEquals("All files queried", 6, summary.files);
+        assertEquals("Syntax errors", 1, summary.unparsable);
+        assertEquals(3, summary.matches);
+        assertEquals(2, summary.matchingFiles);
+        assertEquals(2, summary.matchingSubmissions);
+        assertEquals(3, matches.size());
+        assertTrue(matches.stream().anyMatch(m -> m.file.equals("alice" + File.separator + "Main.java") && m.line == 2 && m.column == 5));
+        assertTrue(matches.stream().anyMatch(m -> m.code.startsWith("void quit()")));
+
+        summary = new CohortQuery("class:has(> field:not([modifier=final]))", 1).run(this.dir, m -> { });
+        assertEquals(1, summary.matches);
+        assertEquals(1, summary.matchingSubmissions);
+        assertTrue("Queries do not write into submissions", !new File(new File(this.dir, "carol"), ".Solution.java.ast").exists());
+    }
+}
@@ -1,17 +1,32 @@
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.PrintStream;
+import java.nio.file.Files;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
 
 import org.junit.Test;
 
+import com.github.javaparser.JavaParser;
+import com.github.javaparser.ast.Node;
+import com.github.javaparser.ast.body.CallableDeclaration;
+import com.github.javaparser.ast.body.ClassOrInterfaceDeclaration;
+import com.github.javaparser.ast.body.MethodDeclaration;
+import com.github.javaparser.ast.expr.MethodCallExpr;
+
 import de.thl.jedunit.Config;
 import de.thl.jedunit.Constraints;
 import de.thl.jedunit.Evaluator;
 import de.thl.jedunit.DSL;
+import de.thl.jedunit.PatternRule;
+import de.thl.jedunit.Rule;
 
 public class ConstraintsTest {
 
@@ -134,4 +149,119 @@ public class ConstraintsTest {
         assertTrue("Cheat detection", console.contains("Evil.java:7:9: [CHEAT] Forbidden call"));
         assertTrue("Cheat detection", console.contains("Evil.java:8:16: [CHEAT] Forbidden call"));
     }
-}
\ No newline at end of file
+
+    /**
+     * Rule that flags all methods named method*.
+     */
+    static class MethodRule implements Rule {
+        final List<Node> visited = new LinkedList<>();
+
+        public String getRemark() { return "No methods named method"; }
+        public int getPenalty() { return 10; }
+        public Collection<Class<? extends Node>> getNodeTypes() { return Arrays.asList(CallableDeclaration.class); }
+
+        public Visitor start() {
+            return new Visitor() {
+                final List<Violation> violations = new LinkedList<>();
+
+                public void visit(Node node, int position) {
+                    visited.add(node);
+                    CallableDeclaration<?> c = (CallableDeclaration<?>)node;
+                    if (c.getNameAsString().startsWith("method")) violations.add(new Violation(c, "Bad name: " + c.getName()));
+                }
+
+                public List<Violation> getViolations() { return violations; }
+            };
+        }
+    }
+
+    static class RuleChecks extends Constraints {
+        double percentage() { return this.percentage; }
+    }
+
+    @Test
+    public void testCustomRules() {
+        MethodRule methods = new MethodRule();
+        RuleChecks checks = new RuleChecks() {
+            @Override
+            public void configure() {
+                super.configure();
+                String file = ClassLoader.getSystemClassLoader().getResource("Nightmare.java").getFile();
+                Config.EVALUATED_FILES = new HashSet<>(Arrays.asList(file));
+                Config.CHECK_IMPORTS = false;
+                Config.ALLOW_LOOPS = true;
+                Config.ALLOW_METHODS = true;
+                Config.ALLOW_LAMBDAS = true;
+                Config.ALLOW_INNER_CLASSES = true;
+                Config.ALLOW_DATAFIELDS = true;
+                Config.CHECK_COLLECTION_INTERFACES = false;
+                Config.ALLOW_CONSOLE_OUTPUT = true;
+                Config.RULE_STATISTICS = true;
+                Config.RULES = new LinkedList<>(Arrays.asList(methods, new PatternRule(25, "No exit")
+                    .match(MethodCallExpr.class, call -> call.toString().startsWith("System.exit"), call -> "Do not exit")
+                ));
+            }
+        };
+        try {
+            checks.configure();
+            checks.conventions();
+        } finally {
+            Config.RULES = new LinkedList<>();
+            Config.RULE_STATISTICS = false;
+        }
+
+        assertEquals("Rule gets only nodes of its types", 6, methods.visited.size());
+        assertTrue("Rule gets only nodes of its types", methods.visited.stream().allMatch(n -> n instanceof MethodDeclaration));
+        assertEquals("Penalties of violated rules", -0.35, checks.percentage(), 0.0001);
+    }
+
+    @Test
+    public void testDistinctMatches() throws Exception {
+        PatternRule rule = new PatternRule(25, "No inner classes")
+            .matchWithin(ClassOrInterfaceDeclaration.class, c -> true,
+                ClassOrInterfaceDeclaration.class, c -> true,
+                c -> "Inner classes not allowed", true);
+        List<ClassOrInterfaceDeclaration> classes = JavaParser.parse(
+            "class F1 { class Inner {} } class F2 { class Inner {} } class F3 { class A { class B {} } }"
+        ).findAll(ClassOrInterfaceDeclaration.class);
+        Rule.Visitor visitor = rule.start();
+        for (int i = 0; i < classes.size(); i++) visitor.visit(classes.get(i), i);
+        List<Rule.Violation> violations = visitor.getViolations();
+
+        assertEquals("Every inner class is annotated once", 4, violations.size());
+        assertTrue("Equal inner classes are annotated", violations.get(0).node.getParentNode().get() == classes.get(0));
+        assertTrue("Equal inner classes are annotated", violations.get(1).node.getParentNode().get() == classes.get(2));
+    }
+
+    @Test
+    public void testSyntaxErrorsOfUnsuspectFiles() throws Exception {
+        File file = File.createTempFile("Broken", ".java");
+        Files.write(file.toPath(), "class Broken { int m() { return 1 } }".getBytes("UTF-8"));
+        try {
+            RuleChecks checks = new RuleChecks() {
+                @Override
+                public void configure() {
+                    super.configure();
+                    Config.EVALUATED_FILES = new HashSet<>(Arrays.asList(file.getAbsolutePath()));
+                    Config.CHECK_IMPORTS = false;
+                    Config.ALLOW_LOOPS = false;
+                    Config.ALLOW_METHODS = true;
+                    Config.ALLOW_LAMBDAS = false;
+                    Config.ALLOW_INNER_CLASSES = true;
+                    Config.ALLOW_DATAFIELDS = false;
+                    Config.CHECK_COLLECTION_INTERFACES = false;
+                    Config.ALLOW_CONSOLE_OUTPUT = true;
+                }
+            };
+            checks.configure();
+            checks.conventions();
+        } finally {
+            file.delete();
+        }
+        // Comments are collected for VPL (and not printed)
+        java.lang.reflect.Field ja = DSL.class.getDeclaredField("ja");
+        ja.setAccessible(true);
+        String comments = ja.get(null).toString();
+        assertTrue("Syntax errors are reported although no rule suspects the file", comments.contains("Could not parse file: " + file.getAbsolutePath()));
+    }
+}
@@ -8,10 +8,11 @@ import java.util.stream.Stream;
 
 import org.junit.After;
 import org.junit.Before;
-import org.junit.Test;
 
+import de.thl.jedunit.Config;
 import de.thl.jedunit.Constraints;
 import de.thl.jedunit.Evaluator;
+import de.thl.jedunit.Test;
 
 class Main {
 
@@ -60,7 +61,7 @@ public class EvaluatorTest {
         System.setOut(redirected);
     }
 
-    @Test
+    @org.junit.Test
     public void testEvaluationProcess() {
         Constraints check = new TestChecks();
         check.runTests(); // process functional tests
@@ -82,4 +83,146 @@ public class EvaluatorTest {
         assertEquals(1, Stream.of(console.split("\n")).filter(line -> line.contains("Grade :=>> 12")).count());
         assertEquals(7, Stream.of(console.split("\n")).filter(line -> line.contains("Grade :=>>")).count());
     }
-}
\ No newline at end of file
+
+    public static class OrderedChecks extends Constraints {
+        @Test(weight=0.5, description="Slow test")
+        public void a() throws InterruptedException {
+            Thread.sleep(100);
+            System.out.println("Output of a");
+            grading(5, "Check of a", () -> Main.countChars('o', "Hello World") == 2);
+        }
+
+        @Test(weight=0.5, description="Fast test")
+        public void b() {
+            System.out.println("Output of b");
+            test('o', 'l', 'x').each(c -> Main.countChars(c, "Hello World") == Solution.countChars(c, "Hello World"), c -> "Counting " + c);
+            penalize(10, "Penalty of b", () -> true);
+        }
+    }
+
+    private String run(boolean parallel) {
+        system.reset();
+        Config.PARALLEL_TESTS = parallel;
+        try {
+            new OrderedChecks().runTests();
+        } finally {
+            Config.PARALLEL_TESTS = false;
+        }
+        return system.toString();
+    }
+
+    @org.junit.Test
+    public void testParallelTests() {
+        String sequential = run(false);
+        String parallel = run(true);
+        assertTrue("Test order", sequential.indexOf("Output of a") < sequential.indexOf("Output of b"));
+        assertEquals("Parallel tests are reported like sequential tests", sequential, parallel);
+    }
+
+    public static class RandomChecks extends Constraints {
+        @Test(weight=0.5, description="Slow random test")
+        public void a() throws InterruptedException {
+            Thread.sleep(100);
+            System.out.println("Data of a: " + de.thl.jedunit.DSL.i(1000000) + " " + de.thl.jedunit.DSL.s("[a-z]{8}"));
+        }
+
+        @Test(weight=0.5, description="Fast random test")
+        public void b() {
+            System.out.println("Data of b: " + de.thl.jedunit.DSL.i(1000000) + " " + de.thl.jedunit.DSL.s("[a-z]{8}"));
+        }
+    }
+
+    private String runRandom(boolean parallel) {
+        system.reset();
+        Config.PARALLEL_TESTS = parallel;
+        Config.SEED = 42;
+        try {
+            new RandomChecks().runTests();
+        } finally {
+            Config.PARALLEL_TESTS = false;
+            Config.SEED = 0;
+        }
+        return system.toString();
+    }
+
+    @org.junit.Test
+    public void testSeededParallelTests() {
+        String sequential = runRandom(false);
+        assertEquals("Seeded tests are reproducible", sequential, runRandom(false));
+        assertEquals("Seeded parallel tests draw the same data as sequential tests", sequential, runRandom(true));
+    }
+
+    public static class SlowChecks extends Constraints {
+        @Test(weight=1.0, description="Slow checks", checkTimeout=100)
+        public void slow() {
+            grading(5, "Fast check", () -> true);
+            grading(5, "Slow check", () -> {
+                try {
+                    Thread.sleep(10000);
+                } catch (InterruptedException ex) {
+                    return true;
+                }
+                return true;
+            });
+        }
+    }
+
+    @org.junit.Test
+    public void testTimeouts() {
+        long start = System.currentTimeMillis();
+        new SlowChecks().runTests();
+        assertTrue("Slow check is aborted", System.currentTimeMillis() - start < 5000);
+        assertTrue("Slow check is scored with 0 points", system.toString().contains("Grade :=>> 50"));
+    }
+
+    public static class GreedyChecks extends Constraints {
+        @Test(weight=1.0, description="Greedy checks", checkMemory=16)
+        public void greedy() {
+            grading(5, "Frugal check", () -> new int[1024].length > 0);
+            grading(5, "Greedy check", () -> {
+                java.util.List<byte[]> memory = new java.util.LinkedList<>();
+                while (!Thread.currentThread().isInterrupted()) memory.add(new byte[1024 * 1024]);
+                return true;
+            });
+        }
+    }
+
+    @org.junit.Test
+    public void testMemoryBudgets() {
+        new GreedyChecks().runTests();
+        assertTrue("Greedy check is scored with 0 points", system.toString().contains("Grade :=>> 50"));
+    }
+
+    public static class HopelessChecks extends Constraints {
+        static boolean executed = false;
+
+        @de.thl.jedunit.Inspection(description="Severe violations")
+        public void violations() {
+            penalize(100, "Severe violation", () -> true);
+        }
+
+        @Test(weight=0.5, description="Skippable test")
+        public void skippable() {
+            executed = true;
+            grading(5, "Check", () -> true);
+        }
+    }
+
+    @org.junit.Test
+    public void testFailFast() {
+        Config.FAIL_FAST = true;
+        try {
+            HopelessChecks check = new HopelessChecks();
+            check.runInspections();
+            check.runTests();
+            assertFalse("Tests are skipped if the grade can not change", HopelessChecks.executed);
+            assertEquals("Grade is not affected", 0, check.getPoints());
+        } finally {
+            Config.FAIL_FAST = false;
+        }
+        HopelessChecks check = new HopelessChecks();
+        check.runInspections();
+        check.runTests();
+        assertTrue("Tests are executed without fail fast", HopelessChecks.executed);
+    }
+}
@@ -0,0 +1,82 @@
+import static de.thl.jedunit.DSL.s;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.thl.jedunit.GradingServer;
+
+public class GradingServerTest {
+
+    private File dir;
+
+    private File submission(String name) throws Exception {
+        File submission = new File(this.dir, name);
+        submission.mkdirs();
+        for (String file : new String[] { "Main", "Solution", "Checks" }) {
+            try (InputStream in = GradingServerTest.class.getResourceAsStream("/" + file + ".java.template")) {
+                Files.copy(in, new File(submission, file + ".java").toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        new File(submission, "checkstyle.log").createNewFile();
+        return submission;
+    }
+
+    private void replace(File file, String from, String to) throws Exception {
+        String code = new String(Files.readAllBytes(file.toPath()), "UTF-8");
+        Files.write(file.toPath(), code.replace(from, to).getBytes("UTF-8"));
+    }
+
+    private void delete(File f) {
+        if (f.isDirectory()) Stream.of(f.listFiles()).forEach(file -> delete(file));
+        f.delete();
+    }
+
+    @Before public void createDir() throws Exception {
+        this.dir = new File(s("/tmp/test-[a-z]{5}-[0-9]{3}"));
+        this.dir.mkdirs();
+    }
+
+    @After public void removeDir() {
+        delete(this.dir);
+    }
+
+    @Test public void testServe() throws Exception {
+        File alice = submission("alice");
+        File bob = submission("bob");
+        // Alice disables checkstyle and tries to end her response early
+        replace(new File(alice, "Checks.java"), "// Config.CHECKSTYLE = false;", "Config.CHECKSTYLE = false;");
+        replace(new File(alice, "Main.java"), "return -1;", "System.out.println(\"\\u0004\"); return -1;");
+
+        ByteArrayOutputStream responses = new ByteArrayOutputStream();
+        String requests = alice.getAbsolutePath() + "\n" + bob.getAbsolutePath() + "\n";
+        new GradingServer().serve(new BufferedReader(new StringReader(requests)), new PrintStream(responses, true, "UTF-8"));
+
+        InputStream in = new ByteArrayInputStream(responses.toByteArray());
+        String first = GradingServer.readResponse(in);
+        String second = GradingServer.readResponse(in);
+        assertEquals("All responses read", -1, in.read());
+
+        assertTrue("Output of a submission is part of its response", first.contains("\u0004"));
+        assertTrue("Responses end with the trailer", first.contains(GradingServer.COMMENTS) && second.contains(GradingServer.COMMENTS));
+        assertFalse("Output of a submission stays in its response", second.contains("\u0004"));
+        assertFalse("Config is reset between requests", first.contains("Begin Checkstyle"));
+        assertTrue("Config is reset between requests", second.contains("Begin Checkstyle"));
+        String comments = second.substring(second.lastIndexOf(GradingServer.COMMENTS));
+        assertEquals("Comments are reset between requests", 1, comments.split("Begin Tests").length - 1);
+    }
+}
@@ -0,0 +1,154 @@
+import static de.thl.jedunit.DSL.s;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.thl.jedunit.GradingServer;
+
+public class ResultCacheTest {
+
+    private static final String CHECKS = String.join("\n",
+        "import de.thl.jedunit.*;",
+        "public class Checks extends Constraints {",
+        "    @Override",
+        "    public void configure() {",
+        "        super.configure();",
+        "        Config.EVALUATED_FILES.remove(\"Checks.java\");",
+        "        Config.CHECKSTYLE = false;",
+        "        Config.CHECKSTYLE_PENALTY = Integer.getInteger(\"jedunit.test.penalty\", 5);",
+        "        Config.SEED = 42;",
+        "        Config.RESULT_CACHE = \"%s\";",
+        "        Config.RESULT_CACHE_SIZE = 1;",
+        "    }",
+        "    @Inspection(description=\"%s\")",
+        "    public void aborts() {",
+        "        System.out.println(\"Execution \" + System.nanoTime());",
+        "        abortOn(\"Aborted\", () -> Main.abort());",
+        "    }",
+        "    @de.thl.jedunit.Test(weight=1.0, description=\"Output\")",
+        "    public void output() {",
+        "        System.out.println(new String(new char[Main.size()]).replace('\\0', 'x'));",
+        "        grading(5, \"Output\", () -> true);",
+        "    }",
+        "}"
+    );
+
+    private static final String MAIN = String.join("\n",
+        "/** Main class */",
+        "class Main {",
+        "    static int size() { return %d; } // size of the output",
+        "    static boolean abort() { return %b; }",
+        "}"
+    );
+
+    private File dir;
+
+    private File cache;
+
+    private final GradingServer server = new GradingServer();
+
+    private File submission(String name, int size, boolean abort) throws Exception {
+        File submission = new File(this.dir, name);
+        submission.mkdirs();
+        write(new File(submission, "Checks.java"), String.format(CHECKS, this.cache.getAbsolutePath(), "Inspection"));
+        write(new File(submission, "Main.java"), String.format(MAIN, size, abort));
+        return submission;
+    }
+
+    private void write(File file, String content) throws Exception {
+        Files.write(file.toPath(), content.getBytes("UTF-8"));
+    }
+
+    private void replace(File file, String from, String to) throws Exception {
+        String code = new String(Files.readAllBytes(file.toPath()), "UTF-8");
+        write(file, code.replace(from, to));
+    }
+
+    /**
+     * Evaluates a submission and returns the time its inspections were executed
+     * (replayed evaluations report the time of the cached evaluation).
+     */
+    private String execution(String response) {
+        Matcher m = Pattern.compile("Execution \\d+").matcher(response);
+        assertTrue(response, m.find());
+        return m.group();
+    }
+
+    private String grade(File submission) throws Exception {
+        // Replayed results must not be confused with results of the same millisecond
+        Thread.sleep(20);
+        return this.server.grade(submission);
+    }
+
+    private void delete(File f) {
+        if (f.isDirectory()) Stream.of(f.listFiles()).forEach(file -> delete(file));
+        f.delete();
+    }
+
+    @Before public void createDir() throws Exception {
+        this.dir = new File(s("/tmp/test-[a-z]{5}-[0-9]{3}"));
+        this.cache = new File(this.dir, "cache");
+        this.dir.mkdirs();
+    }
+
+    @After public void removeDir() {
+        System.clearProperty("jedunit.test.penalty");
+        delete(this.dir);
+    }
+
+    @Test public void testResubmission() throws Exception {
+        File submission = submission("alice", 1000, false);
+        String first = grade(submission);
+        assertEquals("Identical resubmissions are replayed byte by byte", first, grade(submission));
+
+        replace(new File(submission, "Main.java"), "Main class", "Main class of the submission");
+        replace(new File(submission, "Main.java"), "size of the output", "TODO");
+        assertEquals("Comment-only edits are replayed", first, grade(submission));
+    }
+
+    @Test public void testChanges() throws Exception {
+        File submission = submission("alice", 1000, false);
+        String first = execution(grade(submission));
+
+        replace(new File(submission, "Main.java"), "1000", "1001");
+        String changedCode = execution(grade(submission));
+        assertNotEquals("Changed code is evaluated", first, changedCode);
+
+        replace(new File(submission, "Checks.java"), "\"Inspection\"", "\"Changed inspection\"");
+        String changedChecks = execution(grade(submission));
+        assertNotEquals("Changed checks are evaluated", changedCode, changedChecks);
+
+        System.setProperty("jedunit.test.penalty", "10");
+        assertNotEquals("Changed config is evaluated", changedChecks, execution(grade(submission)));
+    }
+
+    @Test public void testEviction() throws Exception {
+        // Every result takes about 0.4 MB of the 1 MB cache
+        File alice = submission("alice", 400000, false);
+        File bob = submission("bob", 400001, false);
+        File carol = submission("carol", 400002, false);
+        String a = execution(grade(alice));
+        String b = execution(grade(bob));
+        assertEquals("Cached result", a, execution(grade(alice)));
+        grade(carol);
+        assertEquals("Recently used results are kept", a, execution(grade(alice)));
+        assertNotEquals("Least recently used results are evicted", b, execution(grade(bob)));
+    }
+
+    @Test public void testAbortedEvaluation() throws Exception {
+        File submission = submission("alice", 1000, true);
+        String first = grade(submission);
+        assertTrue(first, first.contains("Evaluation aborted! Aborted"));
+        assertNotEquals("Aborted evaluations are not cached", execution(first), execution(grade(submission)));
+    }
+}
@@ -1,4 +1,6 @@
 import static de.thl.jedunit.DSL.BLOCK;
+import static de.thl.jedunit.DSL.CALLABLE;
+import static de.thl.jedunit.DSL.CLAZZ;
 import static de.thl.jedunit.DSL.CONSTRUCTOR;
 import static de.thl.jedunit.DSL.FIELD;
 import static de.thl.jedunit.DSL.FOREACH;
@@ -11,9 +13,17 @@ import static de.thl.jedunit.DSL.inspect;
 import static de.thl.jedunit.DSL.resource;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import org.junit.Test;
 
+import com.github.javaparser.ast.body.BodyDeclaration;
+import com.github.javaparser.ast.body.MethodDeclaration;
+import com.github.javaparser.ast.stmt.Statement;
+
+import de.thl.jedunit.DSL;
+import de.thl.jedunit.Selected;
+
 public class SelectTest {
 
     @Test public void testSelect() {
@@ -25,6 +35,19 @@ public class SelectTest {
         });
     }
 
+    @Test public void testSupertypeSelect() {
+        inspect(resource("Submission.java.test"), ast -> {
+            assertEquals(
+                ast.select(METHOD).count() + ast.select(CONSTRUCTOR).count(),
+                ast.select(CALLABLE).count()
+            );
+            assertEquals(ast.select(METHOD).count(), ast.select(CLAZZ).select(METHOD).count());
+            assertEquals(0, ast.select(METHOD).select(METHOD).count());
+            assertTrue(ast.select(METHOD).select(RETURN).exists());
+            return true;
+        });
+    }
+
     @Test public void testFilteredNameSelect() {
         inspect(resource("Submission.java.test"), ast -> {
             assertEquals(2, ast.select(METHOD).filter("name=method").count());
@@ -110,4 +133,109 @@ public class SelectTest {
             return true;
         });
     }
-}
\ No newline at end of file
+
+    @Test public void testFilterOperators() {
+        inspect(resource("Submission.java.test"), ast -> {
+            assertEquals(2, ast.select(METHOD).filter("name^=meth").count());
+            assertEquals(1, ast.select(METHOD).filter("name$=st").count());
+            assertEquals(3, ast.select(METHOD).filter("name*=t").count());
+            assertEquals(1, ast.select(FIELD).select(VAR).filter("type^=List<").count());
+            assertEquals(1, ast.select(METHOD).filter("[param^=C,]").count());
+            assertEquals(1, ast.select(FIELD).filter("modifier=PUBLIC").filter("modifier=static").count());
+            assertEquals(2, ast.select(METHOD).filter("name=method", "[modifier=public]").count());
+            return true;
+        });
+    }
+
+    @Test public void testSelectorExpressions() {
+        inspect(resource("Submission.java.test"), ast -> {
+            assertEquals(3, ast.select("class > method").count());
+            assertEquals(0, ast.select("> method").count());
+            assertEquals(2, ast.select("class > method > block > return").filter("return").count());
+            assertEquals(2, ast.select("class method return").count());
+            assertEquals(2, ast.select("method[modifier=public]").count());
+            assertEquals(1, ast.select("method:not([modifier=public])").count());
+            assertEquals(1, ast.select("method:has(lambda[param=String])").count());
+            assertEquals(2, ast.select("callable:has(> parameter[type=String])").count());
+            assertEquals(4, ast.select("constructor, method[name=method], method[name=method]").count());
+            assertEquals(2, ast.select(CLAZZ).select("> method[name=method]").count());
+            assertEquals(5, ast.select("FieldDeclaration").count());
+            assertEquals(1, ast.select("field > VariableDeclarator[type=\"List<Submission>\"]").count());
+            assertTrue(ast.select(METHOD).filter("class > method").count() == 3);
+            return true;
+        });
+        for (String invalid : new String[] { "method >", "methd", "method[nam=a]", "method:is(a)", "[name=a", "method,," }) {
+            try {
+                DSL.parse(resource("Submission.java.test")).select(invalid);
+                fail("Invalid selector " + invalid);
+            } catch (IllegalArgumentException ex) {
+                assertTrue(ex.getMessage(), ex.getMessage().contains(invalid));
+            }
+        }
+    }
+
+    @Test public void testSetOperations() {
+        inspect(resource("Submission.java.test"), ast -> {
+            assertEquals(3, ast.select("parameter[type=Submission]").distinct().count());
+            assertEquals(3, ast.select("class, method").select("parameter[type=Submission]").count());
+            assertEquals(3, ast.select(METHOD).filter("name=method").union(ast.select(METHOD).filter("name=test")).count());
+            assertEquals(1, ast.select(METHOD).filter("modifier=public").intersect(ast.select(METHOD).filter("param=C,Submission")).count());
+            assertEquals(1, ast.select(METHOD).except(ast.select(METHOD).filter("modifier=public")).count());
+            assertEquals("test", ast.select(CALLABLE).except(ast.select(CONSTRUCTOR)).except(ast.select(METHOD).filter("name=method")).asNode().getNameAsString());
+            assertTrue(ast.select("return").intersect(ast.select("method")).isEmpty());
+            assertEquals(2, ast.select("return").union(ast.select("foreach")).count());
+            return true;
+        });
+    }
+
+    @Test public void testAncestorSelect() {
+        inspect(resource("Submission.java.test"), ast -> {
+            assertEquals(2, ast.select(RETURN).ancestors(METHOD).count());
+            assertEquals(1, ast.select(RETURN).ancestors(CLAZZ).count());
+            assertEquals(1, ast.select(LAMBDA).ancestors(CALLABLE).count());
+            assertEquals("method", ast.select(LAMBDA).ancestors(METHOD).asNode().getNameAsString());
+            assertTrue(ast.select(CLAZZ).ancestors(CLAZZ).isEmpty());
+            assertEquals(3, ast.select("class, method").childSelect(BLOCK).count());
+            assertEquals(ast.select(CALLABLE).select(RETURN).count(), ast.select("class, callable").select(RETURN).count());
+            return true;
+        });
+    }
+
+    @Test public void testLazySelect() {
+        inspect(resource("Submission.java.test"), ast -> {
+            int[] tests = { 0 };
+            Selected<MethodDeclaration> methods = ast.select(METHOD).filter(m -> ++tests[0] > 0);
+            assertEquals(0, tests[0]);
+            assertTrue(methods.exists());
+            assertEquals(1, tests[0]);
+            assertEquals("method", methods.first().asNode().getNameAsString());
+            assertEquals(2, tests[0]);
+            assertEquals(3, methods.count());
+            assertEquals(5, methods.select(RETURN).count() + methods.childSelect(BLOCK).count());
+            assertEquals(5, tests[0]);
+            assertTrue(methods.filter("name=test").childSelect(BLOCK).childSelect(RETURN).isSingle());
+            assertEquals(2, ast.select(CLAZZ).select(LAMBDA).union(methods.select(LAMBDA)).count());
+            return true;
+        });
+    }
+
+    @Test public void testAxes() {
+        inspect(resource("Submission.java.test"), ast -> {
+            assertEquals(2, ast.select(RETURN).parent(BLOCK).count());
+            assertEquals(0, ast.select(RETURN).parent(METHOD).count());
+            assertEquals(2, ast.select(RETURN).parent(BLOCK).parent(METHOD).count());
+            assertEquals(9, ast.select(METHOD).filter("name=test").siblings(BodyDeclaration.class).count());
+            assertEquals(10, ast.select(CLAZZ).childSelect(BodyDeclaration.class).count());
+            assertEquals(3, ast.select(METHOD).siblings(METHOD).count());
+            assertEquals(1, ast.select(METHOD).filter("name=test").siblings(METHOD).filter("param=Submission").count());
+            assertEquals("test", ast.select(METHOD).next(METHOD).filter("name=test").asNode().getNameAsString());
+            assertEquals(2, ast.select(METHOD).next(METHOD).count());
+            assertEquals(2, ast.select(METHOD).previous(METHOD).count());
+            assertTrue(ast.select(CONSTRUCTOR).previous(CONSTRUCTOR).isSingle());
+            assertEquals(1, ast.select(RETURN).previous(Statement.class).count());
+            assertTrue(ast.select(RETURN).next(Statement.class).isEmpty());
+            assertEquals(ast.select(BodyDeclaration.class).select(BLOCK).childSelect(Statement.class).count(), ast.select(BLOCK).childSelect(Statement.class).count());
+            return true;
+        });
+    }
+}
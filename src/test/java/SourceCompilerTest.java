@@ -0,0 +1,99 @@
+import static de.thl.jedunit.DSL.s;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.thl.jedunit.SourceCompiler;
+
+public class SourceCompilerTest {
+
+    private File dir;
+
+    private void copy(String resource, String file) throws Exception {
+        try (InputStream in = SourceCompilerTest.class.getResourceAsStream("/" + resource)) {
+            Files.copy(in, new File(this.dir, file).toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    @Before public void createSubmission() throws Exception {
+        this.dir = new File(s("/tmp/test-[a-z]{5}-[0-9]{3}"));
+        this.dir.mkdirs();
+        copy("Main.java.template", "Main.java");
+        copy("Solution.java.template", "Solution.java");
+        copy("Checks.java.template", "Checks.java");
+    }
+
+    @After public void removeSubmission() {
+        Stream.of(this.dir.listFiles()).forEach(f -> f.delete());
+        this.dir.delete();
+    }
+
+    @Test public void testCompile() throws Exception {
+        SourceCompiler compiler = new SourceCompiler();
+        Map<String, byte[]> classes = compiler.compile(this.dir);
+        assertTrue("Checks compiled", classes.containsKey("Checks"));
+        assertTrue("Solution compiled", classes.containsKey("Solution"));
+        assertTrue("Main compiled", classes.containsKey("Main"));
+
+        Map<String, byte[]> again = compiler.compile(this.dir);
+        assertTrue("Shared classes reused", classes.get("Solution") == again.get("Solution"));
+        assertTrue("Checks recompiled", classes.get("Checks") != again.get("Checks"));
+        assertTrue("Submission recompiled", classes.get("Main") != again.get("Main"));
+    }
+
+    @Test public void testChecksFollowSubmission() throws Exception {
+        SourceCompiler compiler = new SourceCompiler();
+        Files.write(new File(this.dir, "Checks.java").toPath(), "class Checks { long g() { return Main.f(); } }".getBytes("UTF-8"));
+        Files.write(new File(this.dir, "Main.java").toPath(), "class Main { static int f() { return 1; } }".getBytes("UTF-8"));
+        Map<String, byte[]> first = compiler.compile(this.dir);
+        Files.write(new File(this.dir, "Main.java").toPath(), "class Main { static long f() { return 1; } }".getBytes("UTF-8"));
+        Map<String, byte[]> second = compiler.compile(this.dir);
+        assertTrue("Checks compiled against each submission", !Arrays.equals(first.get("Checks"), second.get("Checks")));
+    }
+
+    @Test public void testSharedClasses() throws Exception {
+        SourceCompiler compiler = new SourceCompiler();
+        Map<String, byte[]> classes = compiler.compile(this.dir);
+        Map<String, byte[]> shared = compiler.sharedClasses(compiler.assignment(this.dir));
+        assertTrue("Solution is shared", shared.get("Solution") == classes.get("Solution"));
+        assertTrue("Checks are not shared", !shared.containsKey("Checks"));
+        assertTrue("Submission is not shared", !shared.containsKey("Main"));
+    }
+
+    @Test public void testSharedClassesAreBounded() throws Exception {
+        SourceCompiler compiler = new SourceCompiler();
+        File solution = new File(this.dir, "Solution.java");
+        Files.write(new File(this.dir, "Checks.java").toPath(), "class Checks {}".getBytes("UTF-8"));
+        String first = null;
+        for (int i = 0; i <= SourceCompiler.ASSIGNMENTS; i++) {
+            Files.write(solution.toPath(), ("class Solution { static int revision() { return " + i + "; } }").getBytes("UTF-8"));
+            compiler.compile(this.dir);
+            if (first == null) first = compiler.assignment(this.dir);
+        }
+        assertTrue("Least recently used assignments are evicted", compiler.sharedClasses(first).isEmpty());
+        assertTrue("Recent assignments are kept", compiler.sharedClasses(compiler.assignment(this.dir)).containsKey("Solution"));
+    }
+
+    @Test public void testCompilationError() throws Exception {
+        SourceCompiler compiler = new SourceCompiler();
+        compiler.compile(this.dir);
+        copy("SyntaxError.java.test", "Main.java");
+        try {
+            compiler.compile(this.dir);
+            fail("Syntax errors must be reported");
+        } catch (SourceCompiler.CompilationError ex) {
+            assertTrue("Error refers to file", ex.getMessage().contains("Main.java"));
+        }
+    }
+}
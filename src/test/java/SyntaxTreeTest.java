@@ -0,0 +1,178 @@
+import static de.thl.jedunit.DSL.METHOD;
+import static de.thl.jedunit.DSL.parse;
+import static de.thl.jedunit.DSL.s;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.javaparser.JavaParser;
+import com.github.javaparser.ast.CompilationUnit;
+import com.github.javaparser.ast.Node;
+import com.github.javaparser.ast.body.ClassOrInterfaceDeclaration;
+
+import de.thl.jedunit.Config;
+import de.thl.jedunit.SyntaxTree;
+import de.thl.jedunit.TokenScan;
+
+public class SyntaxTreeTest {
+
+    private File file;
+
+    private void write(String code) throws Exception {
+        Files.write(this.file.toPath(), code.getBytes("UTF-8"));
+    }
+
+    @Before public void createFile() throws Exception {
+        this.file = new File(s("/tmp/test-[a-z]{5}-[0-9]{3}") + ".java");
+        write("class A { void a() {} }");
+    }
+
+    @After public void removeFile() {
+        this.file.delete();
+        SyntaxTree.invalidateAll();
+    }
+
+    @Test public void testChangedFilesAreParsedAgain() throws Exception {
+        String f = this.file.getAbsolutePath();
+        assertEquals(1, parse(f).select(METHOD).count());
+        assertEquals(1, parse(f).select(METHOD).count());
+        write("class A { void a() {} void b() {} }");
+        assertEquals(2, parse(f).select(METHOD).count());
+        write("class A { void a() { ");
+        assertNull("Syntax errors are reported on every parse", parse(f));
+        assertNull("Syntax errors are reported on every parse", parse(f));
+    }
+
+    @Test public void testInvalidation() throws Exception {
+        String f = this.file.getAbsolutePath();
+        assertEquals(1, parse(f).select(METHOD).count());
+        SyntaxTree.invalidate(f);
+        assertEquals(1, parse(f).select(METHOD).count());
+        this.file.delete();
+        SyntaxTree.invalidateAll();
+        assertNull("Deleted files can not be parsed", parse(f));
+    }
+
+    @Test public void testLimits() throws Exception {
+        String f = this.file.getAbsolutePath();
+        StringBuilder nested = new StringBuilder();
+        for (int i = 0; i < 200; i++) nested.append("(");
+        nested.append("1");
+        for (int i = 0; i < 200; i++) nested.append(")");
+        write("class A { int a() { return " + nested + "; } }");
+        assertEquals("Limits are off by default", 1, parse(f).select(METHOD).count());
+        try {
+            Config.MAX_NESTING = 100;
+            assertNull("Deeply nested files are not parsed", parse(f));
+
+            write("class A { /* " + nested + " */ String a() { return \"" + nested + "\"; } }");
+            assertEquals("Comments and literals are not nested", 1, parse(f).select(METHOD).count());
+
+            write("class A {\n void a() {}\n}");
+            assertEquals(1, parse(f).select(METHOD).count());
+            Config.MAX_LINES = 2;
+            assertNull("Limits are checked for cached files as well", parse(f));
+        } finally {
+            Config.MAX_NESTING = 0;
+            Config.MAX_LINES = 0;
+        }
+    }
+
+    @Test public void testStoredInstructorFiles() throws Exception {
+        File dir = Files.createTempDirectory("assignment").toFile();
+        File solution = new File(dir, "Solution.java");
+        File stored = new File(dir, ".Solution.java.ast");
+        try {
+            String code = new String(Files.readAllBytes(new File(ClassLoader.getSystemClassLoader().getResource("Nightmare.java").getFile()).toPath()), "UTF-8");
+            Files.write(solution.toPath(), code.getBytes("UTF-8"));
+            String f = solution.getAbsolutePath();
+            parse(f);
+            assertFalse("ASTs are only stored for evaluations", stored.exists());
+
+            SyntaxTree.invalidateAll();
+            SyntaxTree.storeInstructorFiles(dir.getParentFile());
+            parse(f);
+            assertFalse("ASTs are only stored for the evaluated directory", stored.exists());
+
+            SyntaxTree.invalidateAll();
+            SyntaxTree.storeInstructorFiles(dir);
+            parse(f);
+            assertTrue("AST of instructor file is stored", stored.exists());
+
+            SyntaxTree.invalidateAll();
+            ClassOrInterfaceDeclaration loaded = parse(f).select(ClassOrInterfaceDeclaration.class).first().asNode();
+            CompilationUnit parsed = JavaParser.parse(code);
+            ClassOrInterfaceDeclaration expected = parsed.getClassByName("Nightmare").get();
+            assertEquals("Stored AST equals parsed AST", expected, loaded);
+            assertEquals("Stored AST equals parsed AST", expected.toString(), loaded.toString());
+            assertEquals("Positions are stored", expected.getRange(), loaded.getRange());
+            assertEquals("Comments are stored", parsed.getAllContainedComments(), loaded.findCompilationUnit().get().getAllContainedComments());
+            assertEquals("Positions are stored",
+                expected.findAll(Node.class).stream().map(Node::getRange).collect(Collectors.toList()),
+                loaded.findAll(Node.class).stream().map(Node::getRange).collect(Collectors.toList())
+            );
+
+            Files.write(solution.toPath(), "class Solution { void a() {} void b() {} }".getBytes("UTF-8"));
+            SyntaxTree.invalidateAll();
+            assertEquals("Stored AST of other content is not used", 2, parse(f).select(METHOD).count());
+
+            Files.write(stored.toPath(), new byte[] { 1, 2, 3 });
+            SyntaxTree.invalidateAll();
+            assertEquals("Corrupt stored ASTs are ignored", 2, parse(f).select(METHOD).count());
+        } finally {
+            SyntaxTree.storeInstructorFiles(null);
+            for (File f : dir.listFiles()) f.delete();
+            dir.delete();
+        }
+    }
+
+    @Test public void testPrefetch() throws Exception {
+        File dir = Files.createTempDirectory("submission").toFile();
+        int threads = Config.PARSER_THREADS;
+        try {
+            List<String> files = new LinkedList<>();
+            for (int i = 1; i <= 10; i++) {
+                File f = new File(dir, "C" + i + ".java");
+                StringBuilder code = new StringBuilder("class C" + i + " {");
+                for (int m = 0; m < i; m++) code.append(" void m" + m + "() {}");
+                Files.write(f.toPath(), code.append(" }").toString().getBytes("UTF-8"));
+                files.add(f.getAbsolutePath());
+            }
+            File broken = new File(dir, "Broken.java");
+            Files.write(broken.toPath(), "class Broken {".getBytes("UTF-8"));
+            files.add(broken.getAbsolutePath());
+
+            Config.PARSER_THREADS = 4;
+            SyntaxTree.prefetch(files);
+            for (int i = 1; i <= 10; i++) assertEquals(i, parse(files.get(i - 1)).select(METHOD).count());
+            assertNull("Syntax errors are reported after prefetching", parse(broken.getAbsolutePath()));
+        } finally {
+            Config.PARSER_THREADS = threads;
+            for (File f : dir.listFiles()) f.delete();
+            dir.delete();
+        }
+    }
+
+    @Test public void testScansAreCached() throws Exception {
+        TokenScan scan = SyntaxTree.scan(this.file);
+        assertSame("Unchanged files are scanned only once", scan, SyntaxTree.scan(this.file));
+        write("class Changed { void m() {} }");
+        TokenScan changed = SyntaxTree.scan(this.file);
+        assertNotSame("Changed files are scanned again", scan, changed);
+        SyntaxTree.invalidate(this.file.getAbsolutePath());
+        assertNotSame("Invalidated files are scanned again", changed, SyntaxTree.scan(this.file));
+    }
+}
@@ -0,0 +1,57 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.junit.Test;
+
+import de.thl.jedunit.TokenScan;
+
+public class TokenScanTest {
+
+    private static final String CODE = String.join("\n",
+        "import java.util.List;",
+        "import static java.lang.Math.*;",
+        "public class Main {",
+        "    private static int counter = 0;",
+        "    static final String S = \"for (;;) { System.exit(0); }\";",
+        "    // while (true) System.out.println();",
+        "    public static void main(String[] args) {",
+        "        System . out . println(S);",
+        "        Runnable r = new Runnable() { public void run() { System.out.print(1); } };",
+        "    }",
+        "    int count(List<Integer> xs) { return xs.stream().mapToInt(x -> x).sum(); }",
+        "    static class Inner {}",
+        "}"
+    );
+
+    @Test public void testDeclarations() {
+        TokenScan scan = new TokenScan(CODE);
+        assertTrue(scan.isReliable());
+        assertEquals(Arrays.asList("java.util.List", "java.lang.Math"), scan.getImports());
+        assertEquals(Arrays.asList("main", "run", "count"), scan.getMethodNames());
+        assertEquals(Arrays.asList(new HashSet<>(Arrays.asList("private", "static")), new HashSet<>(Arrays.asList("static", "final"))), scan.getFieldModifiers());
+        assertEquals(2, scan.getDeclaredClasses());
+    }
+
+    @Test public void testTokensAndReferences() {
+        TokenScan scan = new TokenScan(CODE);
+        assertTrue(scan.contains("->"));
+        assertFalse(scan.contains("for"));
+        assertFalse(scan.contains("while"));
+        assertFalse(scan.references("System.exit"));
+        assertTrue(scan.mentions("System.exit"));
+        assertTrue(scan.references("System.out.println"));
+        assertTrue(scan.referencesOutsideMain("System.out.print"));
+        assertFalse(scan.referencesOutsideMain("System.out.println"));
+    }
+
+    @Test public void testUnreliableSources() {
+        assertTrue(new TokenScan("class A { String s = \"\\u0041\"; }").isReliable());
+        assertTrue(new TokenScan("class A \\u007b }").isReliable());
+        assertFalse(new TokenScan("class A { void a() { }").isReliable());
+        assertFalse(new TokenScan("class A { char c = '\\uZZZZ'; }").isReliable());
+    }
+}
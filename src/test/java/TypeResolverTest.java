@@ -0,0 +1,82 @@
+import static de.thl.jedunit.DSL.parse;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.javaparser.ast.body.Parameter;
+
+import de.thl.jedunit.Config;
+import de.thl.jedunit.SyntaxTree;
+import de.thl.jedunit.TypeResolver;
+
+public class TypeResolverTest {
+
+    private File dir;
+
+    private void write(String file, String code) throws Exception {
+        Files.write(new File(this.dir, file).toPath(), code.getBytes("UTF-8"));
+    }
+
+    /**
+     * Returns the parameters of Main.java by name.
+     */
+    private Map<String, Parameter> parameters() {
+        Map<String, Parameter> params = new HashMap<>();
+        for (Parameter p : parse(new File(this.dir, "Main.java").getAbsolutePath()).select(Parameter.class)) params.put(p.getNameAsString(), p);
+        return params;
+    }
+
+    @Before public void createDir() throws Exception {
+        this.dir = Files.createTempDirectory("submission").toFile();
+        write("Main.java", String.join("\n",
+            "import java.util.*;",
+            "class Main {",
+            "    static void m(java.util.HashMap<String, Integer> qualified, HashMap<String, Integer> imported,",
+            "        ArrayListHelper helper, TreeMap own, ArrayList<String>[] array, Map<String, Integer> map) {}",
+            "}"
+        ));
+        write("ArrayListHelper.java", "class ArrayListHelper {}");
+        write("TreeMap.java", "class TreeMap {}");
+    }
+
+    @After public void removeDir() {
+        for (File f : this.dir.listFiles()) f.delete();
+        this.dir.delete();
+        SyntaxTree.invalidateAll();
+    }
+
+    @Test public void testResolvedTypes() {
+        TypeResolver.prewarm();
+        Map<String, Parameter> params = parameters();
+        assertTrue("Qualified types", TypeResolver.is(params.get("qualified").getType(), HashMap.class));
+        assertTrue("Imported types", TypeResolver.is(params.get("imported").getType(), HashMap.class));
+        assertTrue("Element types of arrays", TypeResolver.is(params.get("array").getType(), ArrayList.class));
+        assertFalse("Types with similar names", TypeResolver.is(params.get("helper").getType(), ArrayList.class));
+        assertFalse("Types of the submission", TypeResolver.is(params.get("own").getType(), TreeMap.class));
+        assertFalse("Interfaces", TypeResolver.is(params.get("map").getType(), HashMap.class));
+        assertEquals("java.util.Map<java.lang.String, java.lang.Integer>", TypeResolver.resolve(params.get("map").getType()).get().describe());
+    }
+
+    @Test public void testUnresolvedTypes() {
+        Config.RESOLVE_TYPES = false;
+        try {
+            Map<String, Parameter> params = parameters();
+            assertTrue("Qualified types", TypeResolver.is(params.get("qualified").getType(), HashMap.class));
+            assertFalse("Types with similar names", TypeResolver.is(params.get("helper").getType(), ArrayList.class));
+            assertTrue("Types are compared by simple names", TypeResolver.is(params.get("own").getType(), TreeMap.class));
+        } finally {
+            Config.RESOLVE_TYPES = true;
+        }
+    }
+}
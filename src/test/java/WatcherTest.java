@@ -0,0 +1,84 @@
+import static de.thl.jedunit.DSL.s;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.thl.jedunit.Watcher;
+
+public class WatcherTest {
+
+    private File dir;
+
+    private void copy(String resource, String file) throws Exception {
+        try (InputStream in = WatcherTest.class.getResourceAsStream("/" + resource)) {
+            Files.copy(in, new File(this.dir, file).toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private void replace(String file, String from, String to) throws Exception {
+        File f = new File(this.dir, file);
+        String code = new String(Files.readAllBytes(f.toPath()), "UTF-8");
+        Files.write(f.toPath(), code.replace(from, to).getBytes("UTF-8"));
+    }
+
+    private void delete(File f) {
+        if (f.isDirectory()) Stream.of(f.listFiles()).forEach(file -> delete(file));
+        f.delete();
+    }
+
+    /**
+     * Returns [grade, replayed, all] of a report.
+     */
+    private int[] summary(String report) {
+        Matcher m = Pattern.compile("Grade :=>> (\\d+) \\(\\d+ ms, (\\d+) of (\\d+) ").matcher(report);
+        assertTrue(report, m.find());
+        return new int[] { Integer.parseInt(m.group(1)), Integer.parseInt(m.group(2)), Integer.parseInt(m.group(3)) };
+    }
+
+    @Before public void createDir() throws Exception {
+        this.dir = new File(s("/tmp/test-[a-z]{5}-[0-9]{3}"));
+        this.dir.mkdirs();
+        copy("Main.java.template", "Main.java");
+        copy("Solution.java.template", "Solution.java");
+        copy("Checks.java.template", "Checks.java");
+        new File(this.dir, "checkstyle.log").createNewFile();
+    }
+
+    @After public void removeDir() {
+        delete(this.dir);
+    }
+
+    @Test public void testOnlyChangedStepsAreExecuted() throws Exception {
+        Watcher watcher = new Watcher(this.dir);
+        int[] first = summary(watcher.evaluate(Arrays.asList(this.dir.list())));
+        assertEquals("Nothing to replay", 0, first[1]);
+        assertTrue("Inspections and tests", first[2] > 3);
+
+        replace("Main.java", "Main class for VPL assignments.", "Main class of the assignment.");
+        int[] again = summary(watcher.evaluate(Arrays.asList("Main.java")));
+        assertEquals("Same grade", first[0], again[0]);
+        assertEquals("Comments do not matter", again[2], again[1]);
+
+        replace("Checks.java", "t('w', \"Hello World\")", "t('w', \"Hello Wonderful World\")");
+        int[] changed = summary(watcher.evaluate(Arrays.asList("Checks.java")));
+        assertEquals("Same grade", first[0], changed[0]);
+        assertEquals("Only the changed test is executed", changed[2] - 1, changed[1]);
+
+        replace("Main.java", "class Main {", "class Main { {");
+        String broken = watcher.evaluate(Arrays.asList("Main.java"));
+        assertTrue(broken, broken.contains("Main.java:"));
+        assertEquals(0, summary(broken)[0]);
+    }
+}